@@ -1,17 +1,60 @@
 package fr.univ_lyon1.info.m1.microblog;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import fr.univ_lyon1.info.m1.microblog.config.InitialLoadConfig;
+import fr.univ_lyon1.info.m1.microblog.model.RetentionPolicy;
 import fr.univ_lyon1.info.m1.microblog.model.Y;
+import fr.univ_lyon1.info.m1.microblog.persistence.ColdArchive;
+import fr.univ_lyon1.info.m1.microblog.persistence.EventLog;
 import fr.univ_lyon1.info.m1.microblog.view.JfxView;
 import javafx.application.Application;
 import javafx.stage.Stage;
+import org.json.simple.parser.ParseException;
 
 /**
  * Main class for the application (structure imposed by JavaFX).
  */
 public class App extends Application {
+    /**
+     * Directory of the durable log of the changes made to the model.
+     */
+    private static final String EVENT_LOG_DIRECTORY = "data/events";
+    /**
+     * Time between two snapshots of the model, in minutes.
+     */
+    private static final long SNAPSHOT_PERIOD = 5;
+    /**
+     * File of the messages moved out of the hot window.
+     */
+    private static final String ARCHIVE_FILE = "data/archive.dat";
+    /**
+     * Maximum age of the messages that are scored and displayed.
+     */
+    private static final Duration HOT_WINDOW = Duration.ofDays(30);
+    /**
+     * Time between two ticks of the clock of the recency scoring, in minutes.
+     */
+    private static final long RECENCY_TICK_PERIOD = 1;
+
+    private EventLog eventLog;
+    private ColdArchive archive;
+    /**
+     * Thread ticking the clock of the recency scoring.
+     */
+    private final ScheduledExecutorService recencyClock = new ScheduledThreadPoolExecutor(1,
+            task -> {
+                Thread thread = new Thread(task, "recency-clock");
+                thread.setDaemon(true);
+                return thread;
+            });
 
     /**
      * With javafx, start() is called when the application is launched.
@@ -19,22 +62,71 @@ public class App extends Application {
     @Override
     public void start(final Stage stage) {
         final Y y = new Y();
+        // Rebuild the model of the previous runs, then log the new changes
+        try {
+            eventLog = EventLog.open(Paths.get(EVENT_LOG_DIRECTORY), y);
+            eventLog.setFailureHandler(e -> System.err.println(
+                    "Failed to write the event log, the changes are no longer saved: "
+                    + e.getMessage()));
+            y.setJournal(eventLog);
+            eventLog.startSnapshots(y, SNAPSHOT_PERIOD, TimeUnit.MINUTES);
+        } catch (IOException e) {
+            System.err.println("Failed to open the event log: " + e.getMessage());
+        }
+        // Older messages are archived, and can still be fetched by ID
+        try {
+            archive = ColdArchive.open(Paths.get(ARCHIVE_FILE));
+            y.setRetention(RetentionPolicy.byAge(HOT_WINDOW), archive);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Failed to open the archive: " + e.getMessage());
+        }
         JfxView v = new JfxView(y, stage, 600, 600);
         y.addView(v);
-        v.addMessage(null, "Hello");
-        //y.createExampleMessages();
+        // Messages age even when nothing is posted
+        recencyClock.scheduleAtFixedRate(() -> y.tick().exceptionally(error -> {
+            System.err.println("Failed to score messages: " + error.getMessage());
+            return null;
+        }), RECENCY_TICK_PERIOD, RECENCY_TICK_PERIOD, TimeUnit.MINUTES);
+        // The initial messages are only loaded on the first run
+        if (eventLog == null || eventLog.isEmpty()) {
+            v.addMessage(null, "Hello");
+            //y.createExampleMessages();
 
-        InitialLoadConfig configLoader = new InitialLoadConfig(y);
-        try {
-            configLoader.loadConfiguration("src/resources/Messages.json"); 
-        } catch (IOException e) {
-            System.err.println("Failed to load initial configuration: " + e.getMessage());
+            InitialLoadConfig configLoader = new InitialLoadConfig(y);
+            try {
+                System.out.println(configLoader.loadConfiguration("src/resources/Messages.json"));
+            } catch (IOException | ParseException e) {
+                System.err.println("Failed to load initial configuration: " + e.getMessage());
+            }
         }
 
         // Second view (uncomment to activate)
         // y.addView(new JfxView(y, new Stage(), 400, 400));
     }
 
+    /**
+     * With javafx, stop() is called when the application exits.
+     * The changes not written to the event log yet are written before exiting.
+     */
+    @Override
+    public void stop() {
+        recencyClock.shutdown();
+        if (eventLog != null) {
+            try {
+                eventLog.close();
+            } catch (CompletionException | UncheckedIOException e) {
+                System.err.println("Failed to write the event log: " + e.getMessage());
+            }
+        }
+        if (archive != null) {
+            try {
+                archive.close();
+            } catch (UncheckedIOException e) {
+                System.err.println("Failed to close the archive: " + e.getMessage());
+            }
+        }
+    }
+
     /**
      * A main method in case the user launches the application using
      * App as the main class.
@@ -1,24 +1,54 @@
 package fr.univ_lyon1.info.m1.microblog.config;
 
+import fr.univ_lyon1.info.m1.microblog.model.IngestReport;
 import fr.univ_lyon1.info.m1.microblog.model.Message;
 import fr.univ_lyon1.info.m1.microblog.model.Y;
 
-import java.io.FileReader;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
-import java.util.Map;
-import org.json.simple.JSONObject;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import org.json.simple.parser.ContentHandler;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 /**
  * Class responsible for loading initial configuration data into the application model.
  * This includes loading users and messages from a JSON file.
+ * The file is streamed: users and messages are fed to the model in batches
+ * while it is parsed, so loading it only needs a bounded amount of memory.
+ * Parsing the JSON is sequential and reserves the IDs of each batch, in
+ * file order, but the messages of each batch are built (tokenization,
+ * content encoding) on a worker pool, and the batches are then
+ * fed to the model in file order.
  */
 public class InitialLoadConfig {
+    /**
+     * Number of messages fed to the model at once.
+     */
+    static final int BATCH_SIZE = 10_000;
+    /**
+     * Maximum number of batches being built at once, bounding the memory
+     * used by messages waiting to be fed to the model.
+     */
+    private static final int MAX_PENDING_BATCHES =
+            2 * Runtime.getRuntime().availableProcessors();
 
     private final Y y;
+    /**
+     * Executor on which the messages of each batch are built.
+     */
+    private final Executor executor;
 
     /**
      * Constructor that initializes the configuration loader with the application model.
@@ -26,40 +56,270 @@ public class InitialLoadConfig {
      * @param y the instance of the application's model
      */
     public InitialLoadConfig(final Y y) {
+        this(y, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor that initializes the configuration loader with the application
+     * model and the executor on which messages are built.
+     *
+     * @param y        the instance of the application's model
+     * @param executor the executor, e.g. a thread pool sized to the number of cores
+     */
+    public InitialLoadConfig(final Y y, final Executor executor) {
         this.y = y;
+        this.executor = executor;
     }
 
     /**
      * Loads the JSON file and collects the informations to create the messages.
+     * If the path is a directory, all its JSON files are loaded, in name order.
      *
-     * @param configFilePath Path to the configuration file in JSON format.
-     * @throws IOException If an I/O error occurs while reading the file.
+     * @param configFilePath Path to the configuration file in JSON format,
+     *                       or to a directory of such files.
+     * @return the report of the load, timing included the building of the messages.
+     * @throws IOException    If an I/O error occurs while reading the files.
+     * @throws ParseException If a file is not valid JSON.
      */
-    public void loadConfiguration(final String configFilePath) throws IOException {
-        JSONParser jsonP = new JSONParser();
+    public IngestReport loadConfiguration(final String configFilePath)
+            throws IOException, ParseException {
+        List<Path> files = listSeedFiles(Paths.get(configFilePath));
+        SeedFileHandler handler = new SeedFileHandler();
 
+        // The observers are notified once, when everything is loaded
+        long start = System.nanoTime();
         try {
-            JSONObject jsonO = (JSONObject) jsonP.parse(new FileReader(configFilePath));
+            y.batch(() -> {
+                try {
+                    for (Path file : files) {
+                        loadFile(file, handler);
+                    }
+                    handler.flush();
+                } catch (IOException | ParseException e) {
+                    handler.flush();
+                    throw new LoadException(e);
+                }
+            });
+        } catch (LoadException e) {
+            if (e.getCause() instanceof ParseException) {
+                throw (ParseException) e.getCause();
+            }
+            throw (IOException) e.getCause();
+        }
+        // Report the wall-clock time, building included
+        return new IngestReport(handler.report.getNbUsers(),
+                handler.report.getNbMessages(), System.nanoTime() - start);
+    }
 
-            List<String> users = (List<String>) jsonO.get("users");
-            for (String userId : users) {
-                y.createUser(userId);
+    /**
+     * Lists the seed files to load.
+     *
+     * @param path a seed file, or a directory of seed files.
+     * @return the seed files, in name order.
+     * @throws IOException If an I/O error occurs while listing the files.
+     */
+    private List<Path> listSeedFiles(final Path path) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(path)) {
+            files.add(path);
+            return files;
+        }
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(path, "*.json")) {
+            for (Path file : dir) {
+                files.add(file);
             }
-    
-            List<Map<String, String>> messages = (List<Map<String, String>>) jsonO.get("messages");
-            for (Map<String, String> messageData : messages) {
-                String user = messageData.get("user");
-                String content = messageData.get("content");
-                y.add(new Message(user, content));
-                y.notifyObservers();
+        }
+        files.sort(null);
+        return files;
+    }
+
+    /**
+     * Streams a seed file to the handler.
+     *
+     * @param file    the seed file.
+     * @param handler the handler feeding the model.
+     * @throws IOException    If an I/O error occurs while reading the file.
+     * @throws ParseException If the file is not valid JSON.
+     */
+    private void loadFile(final Path file, final SeedFileHandler handler)
+            throws IOException, ParseException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            new JSONParser().parse(reader, handler);
+        }
+    }
+
+    /**
+     * Builds the messages of a batch of records.
+     *
+     * @param firstId the first of the IDs reserved for the batch.
+     * @param records the publisher and content of each message.
+     * @return the messages, in the order of the records.
+     */
+    private static List<Message> buildMessages(final long firstId,
+                                               final List<String[]> records) {
+        List<Message> messages = new ArrayList<>(records.size());
+        long id = firstId;
+        for (String[] record : records) {
+            messages.add(new Message(id++, record[0], record[1]));
+        }
+        return messages;
+    }
+
+    /**
+     * Wraps the checked exceptions raised while loading inside a batch.
+     */
+    private static final class LoadException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructs the exception.
+         *
+         * @param cause the I/O or parse error.
+         */
+        LoadException(final Exception cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * Receives the parsing events of a seed file, of the form
+     * {"users": ["id", ...], "messages": [{"user": "id", "content": "..."}, ...]},
+     * and feeds the users and messages to the model in batches.
+     */
+    private final class SeedFileHandler implements ContentHandler {
+        private int depth = 0;
+        private String section = null;
+        private String field = null;
+        private String user = null;
+        private String content = null;
+        private final List<String> users = new ArrayList<>();
+        private List<String[]> records = new ArrayList<>();
+        /**
+         * Batches of messages being built, in file order.
+         */
+        private final Deque<CompletableFuture<List<Message>>> pending = new ArrayDeque<>();
+        private IngestReport report = new IngestReport(0, 0, 0);
+
+        /**
+         * Sends the pending records to the worker pool, then feeds the oldest
+         * batches to the model while too many are in flight.
+         */
+        void submitRecords() {
+            List<String[]> batch = records;
+            records = new ArrayList<>();
+            // The IDs follow the file order, whatever order the workers run in
+            long firstId = Message.reserveIds(batch.size());
+            pending.add(CompletableFuture.supplyAsync(
+                    () -> buildMessages(firstId, batch), executor));
+            while (pending.size() > MAX_PENDING_BATCHES) {
+                ingestOldestBatch();
+            }
+        }
+
+        /**
+         * Waits for the oldest batch of messages to be built and feeds it to the model.
+         */
+        void ingestOldestBatch() {
+            List<Message> messages = pending.poll().join();
+            report = report.plus(y.ingest(List.of(), messages));
+        }
+
+        /**
+         * Feeds all the pending users and messages to the model.
+         */
+        void flush() {
+            if (!records.isEmpty()) {
+                submitRecords();
+            }
+            while (!pending.isEmpty()) {
+                ingestOldestBatch();
             }
+            if (!users.isEmpty()) {
+                report = report.plus(y.ingest(new ArrayList<>(users), List.of()));
+                users.clear();
+            }
+        }
+
+        @Override
+        public void startJSON() {
+            depth = 0;
+            section = null;
+        }
+
+        @Override
+        public void endJSON() {
+            // Nothing to do, the caller flushes the last batch
+        }
 
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (ParseException e) {
-            e.printStackTrace();
+        @Override
+        public boolean startObject() {
+            depth++;
+            if (depth == 3 && "messages".equals(section)) {
+                user = null;
+                content = null;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean endObject() {
+            if (depth == 3 && "messages".equals(section)) {
+                records.add(new String[] {user, content});
+                if (records.size() >= BATCH_SIZE) {
+                    submitRecords();
+                }
+            }
+            depth--;
+            return true;
+        }
+
+        @Override
+        public boolean startObjectEntry(final String key) {
+            if (depth == 1) {
+                section = key;
+            } else {
+                field = key;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean endObjectEntry() {
+            if (depth == 1) {
+                section = null;
+            }
+            field = null;
+            return true;
+        }
+
+        @Override
+        public boolean startArray() {
+            depth++;
+            return true;
+        }
+
+        @Override
+        public boolean endArray() {
+            depth--;
+            return true;
+        }
+
+        @Override
+        public boolean primitive(final Object value) {
+            if (depth == 2 && "users".equals(section) && value != null) {
+                users.add(value.toString());
+                if (users.size() >= BATCH_SIZE) {
+                    report = report.plus(y.ingest(new ArrayList<>(users), List.of()));
+                    users.clear();
+                }
+            } else if (depth == 3 && "messages".equals(section) && value != null) {
+                if ("user".equals(field)) {
+                    user = value.toString();
+                } else if ("content".equals(field)) {
+                    content = value.toString();
+                }
+            }
+            return true;
         }
     }
 }
@@ -1,15 +1,14 @@
 package fr.univ_lyon1.info.m1.microblog.controller;
 
 import fr.univ_lyon1.info.m1.microblog.dto.MessageDataDTO;
-import fr.univ_lyon1.info.m1.microblog.model.MessageData;
+import fr.univ_lyon1.info.m1.microblog.model.Ranking;
 import fr.univ_lyon1.info.m1.microblog.model.User;
 import fr.univ_lyon1.info.m1.microblog.model.Y;
 
 import java.util.Collection;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
@@ -38,30 +37,40 @@ public class UserController {
     }
 
     /**
-     * Retrieves the messages data for a specific user.
+     * Retrieves the data of the k best ranked messages of a user.
      *
      * @param userId the ID of the user
-     * @return a list of MessageDataDTO objects associated with the user, null if user doesn't exist
+     * @param k the maximum number of messages to retrieve
+     * @return a list of MessageDataDTO objects, best ranked first, null if user doesn't exist
      */
-    public List<MessageDataDTO> getMessagesDataForUser(final String userId) {
+    public List<MessageDataDTO> getTopMessagesDataForUser(final String userId, final int k) {
+        return getRankedMessagesDataForUser(userId, User.VISIBILITY_THRESHOLD, k);
+    }
+
+    /**
+     * Retrieves the data of the best ranked messages of a user whose score is
+     * above a threshold.
+     *
+     * @param userId the ID of the user
+     * @param threshold the score messages must be strictly greater than
+     * @param limit the maximum number of messages to retrieve
+     * @return a list of MessageDataDTO objects, best ranked first, null if user doesn't exist
+     */
+    public List<MessageDataDTO> getRankedMessagesDataForUser(final String userId,
+                                                             final int threshold,
+                                                             final int limit) {
         User user = y.getUserById(userId);
         if (user == null) {
             return null;
         }
-        LinkedHashMap<String, MessageData> allMessages = user.getMessagesData(); // Global messages
         List<MessageDataDTO> messageDataDTOs = new ArrayList<>();
-
-        for (Map.Entry<String, MessageData> entry : allMessages.entrySet()) {
-            String messageId = entry.getKey();
-            MessageData msgData = entry.getValue();
-            MessageDataDTO msgDataDTO = new MessageDataDTO(
-                    messageId,
-                    msgData.getScore(),
-                    msgData.isBookmarked()
-            );
-            messageDataDTOs.add(msgDataDTO);
+        for (Ranking.Entry ranked : y.getRankedMessages(user, threshold, limit)) {
+            messageDataDTOs.add(new MessageDataDTO(
+                    ranked.getId(),
+                    ranked.getScore(),
+                    ranked.isBookmarked()
+            ));
         }
-
         return messageDataDTOs;
     }
 
@@ -72,12 +81,8 @@ public class UserController {
      * @param messageId the ID of the message to bookmark
      * @return true if the message was successfully bookmarked, false otherwise
      */
-    public boolean bookMarkMessage(final String userId, final String messageId) {
-        User user = y.getUserById(userId);
-        if (user == null) {
-            return false;
-        }
-        return user.bookmarkMessage(messageId);
+    public boolean bookMarkMessage(final String userId, final long messageId) {
+        return y.setBookmarked(userId, messageId, true);
     }
 
     /**
@@ -87,47 +92,25 @@ public class UserController {
      * @param messageId the ID of the message to unbookmark
      * @return true if the message was successfully unbookmarked, false otherwise
      */
-    public boolean unBookMarkMessage(final String userId, final String messageId) {
-        User user = y.getUserById(userId);
-        if (user == null) {
-            return false;
-        }
-        return user.removeBookmarkedMessage(messageId);
-    }
-
-    /**
-     * Updates the user's messages with the provided updated messages data.
-     *
-     * @param userId the ID of the user
-     * @param updatedMessages a collection of updated message data
-     */
-    public void updateUserMsg(final String userId,
-                              final Collection<MessageDataDTO> updatedMessages) {
-        User user = y.getUserById(userId);
-        if (user == null) {
-            return;
-        }
-        LinkedHashMap<String, MessageData> mappedMsg = updatedMessages.stream()
-                .collect(Collectors.toMap(
-                        MessageDataDTO::getId,  // Uses the DTO's ID as key
-                        // Transforms DTO to MessageData
-                        dto -> new MessageData(dto.isBookmarked(), dto.getScore()),
-                        (existing, replacement) -> existing, // Keeps existing if duplicates exist
-                        LinkedHashMap::new  // Collects into a LinkedHashMap
-                ));
-        user.updateMessages(mappedMsg);
+    public boolean unBookMarkMessage(final String userId, final long messageId) {
+        return y.setBookmarked(userId, messageId, false);
     }
 
     /**
-     * Sorts the messages of a user based on their scores and bookmark status.
+     * Updates the scores of the messages of several users in parallel, on the
+     * scoring executor of the model.
      *
-     * @param userId the ID of the user
+     * @param userIds the IDs of the users
+     * @return a future completed once all the users are scored
      */
-    public void sortMessages(final String userId) {
-        User user = y.getUserById(userId);
-        if (user == null) {
-            return;
+    public CompletableFuture<Void> rescoreMessagesAsync(final Collection<String> userIds) {
+        List<User> users = new ArrayList<>(userIds.size());
+        for (String userId : userIds) {
+            User user = y.getUserById(userId);
+            if (user != null) {
+                users.add(user);
+            }
         }
-        user.sortMessages();
+        return y.rescoreAsync(users);
     }
 }
@@ -1,16 +1,15 @@
 package fr.univ_lyon1.info.m1.microblog.dto;
 
-import java.util.Date;
-
 /**
  * Data Transfer Object (DTO) for representing a message.
  * This class is used to transfer message data between different layers of the application.
  */
 public class MessageDTO {
-    private final String id;
+    private final long id;
     private final String publisherId;
     private final String content;
-    private final Date date;
+    private final long date;
+    private final String formattedDate;
 
     /**
      * Constructs a MessageDTO with the specified publisher ID, message ID, content, and date.
@@ -18,16 +17,19 @@ public class MessageDTO {
      * @param publisherId the ID of the user who published the message
      * @param id the unique identifier of the message
      * @param content the content of the message
-     * @param date the date when the message was published
+     * @param date the date when the message was published, in milliseconds since the epoch
+     * @param formattedDate the date formatted for display
      */
     public MessageDTO(final String publisherId,
-                      final String id,
+                      final long id,
                       final String content,
-                      final Date date) {
+                      final long date,
+                      final String formattedDate) {
         this.id = id;
         this.publisherId = publisherId;
         this.content = content;
         this.date = date;
+        this.formattedDate = formattedDate;
     }
 
     /**
@@ -35,7 +37,7 @@ public class MessageDTO {
      *
      * @return the message ID
      */
-    public String getId() {
+    public long getId() {
         return id;
     }
 
@@ -60,11 +62,20 @@ public class MessageDTO {
     /**
      * Gets the date when the message was published.
      *
-     * @return the publication date
+     * @return the publication date, in milliseconds since the epoch
      */
-    public Date getDate() {
+    public long getDate() {
         return date;
     }
 
+    /**
+     * Gets the date when the message was published, formatted for display.
+     *
+     * @return the formatted publication date
+     */
+    public String getFormattedDate() {
+        return formattedDate;
+    }
+
 }
 
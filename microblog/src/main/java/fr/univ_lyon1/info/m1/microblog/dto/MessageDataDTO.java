@@ -2,12 +2,14 @@ package fr.univ_lyon1.info.m1.microblog.dto;
 
 /**
  * Data Transfer Object (DTO) for representing the data associated with a message.
- * This class is used to encapsulate the message's score and bookmark status.
+ * This class is used to encapsulate the message's score and bookmark status,
+ * and the message itself once it is loaded for display.
  */
 public class MessageDataDTO {
-    private final String originalMessageId;
+    private final long originalMessageId;
     private int score;
     private boolean isBookmarked;
+    private MessageDTO message;
 
     /**
      * Constructs a MessageDataDTO with the original message ID, score, and bookmark status.
@@ -16,7 +18,7 @@ public class MessageDataDTO {
      * @param score the score of the message
      * @param isBookmarked the bookmark status of the message
      */
-    public MessageDataDTO(final String originalMessageId,
+    public MessageDataDTO(final long originalMessageId,
                           final int score,
                           final boolean isBookmarked) {
         this.originalMessageId = originalMessageId;
@@ -29,7 +31,7 @@ public class MessageDataDTO {
      *
      * @return the original message ID
      */
-    public String getId() {
+    public long getId() {
         return originalMessageId;
     }
 
@@ -68,4 +70,22 @@ public class MessageDataDTO {
     public void setBookmarked(final boolean bookmarked) {
         isBookmarked = bookmarked;
     }
+
+    /**
+     * Gets the message, if it was loaded.
+     *
+     * @return the message, or null if it was not loaded
+     */
+    public MessageDTO getMessage() {
+        return message;
+    }
+
+    /**
+     * Sets the loaded message.
+     *
+     * @param message the message, or null if it cannot be loaded
+     */
+    public void setMessage(final MessageDTO message) {
+        this.message = message;
+    }
 }
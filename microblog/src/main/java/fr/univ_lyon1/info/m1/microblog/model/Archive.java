@@ -0,0 +1,34 @@
+package fr.univ_lyon1.info.m1.microblog.model;
+
+import java.util.Collection;
+
+/**
+ * Cold tier of the model, storing the messages moved out of the hot window
+ * of its {@link RetentionPolicy}, so that they can still be fetched by ID.
+ */
+public interface Archive {
+    /**
+     * Stores messages moved out of the hot window. Messages already stored
+     * are ignored. The messages must be durable once this method returns.
+     *
+     * @param messages the messages, in posting order.
+     */
+    void store(Collection<Message> messages);
+
+    /**
+     * Loads a stored message.
+     *
+     * @param messageId the ID of the message.
+     * @return the message, or null if it is not stored.
+     */
+    Message load(long messageId);
+
+    /**
+     * Removes a stored message, e.g. deleted after it was stored, so that it
+     * can no longer be loaded. Messages not stored are ignored. The removal
+     * must be durable once this method returns.
+     *
+     * @param messageId the ID of the message.
+     */
+    void remove(long messageId);
+}
@@ -0,0 +1,161 @@
+package fr.univ_lyon1.info.m1.microblog.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Global append-only arena holding the contents of the messages outside of
+ * the Java heap, so that the heap and the garbage collection time do not
+ * grow with the number of messages.
+ * Contents are encoded in UTF-8 and appended to a temporary file, mapped in
+ * memory by chunks: the operating system pages them in and out as needed.
+ * A content is identified by its offset in the arena and its length in
+ * bytes, and is decoded each time it is read.
+ * The space of deleted messages is not reclaimed until the application exits.
+ */
+public final class ContentStore {
+    /**
+     * Size of each mapped chunk of the arena, in bytes.
+     */
+    static final int CHUNK_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * File backing the arena, or null if it could not be created, in which
+     * case chunks are allocated in direct (off-heap) memory.
+     */
+    private static FileChannel file;
+    /**
+     * Chunks of the arena, replaced by a larger copy when a chunk is added
+     * so that readers do not need to lock.
+     */
+    private static volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    /**
+     * Offset of the end of the arena, only accessed while holding the lock.
+     */
+    private static long end = 0;
+
+    static {
+        try {
+            Path path = Files.createTempFile("message-contents", ".arena");
+            file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                // The mapping outlives the name of the file
+                Files.delete(path);
+            } catch (IOException e) {
+                path.toFile().deleteOnExit();
+            }
+        } catch (IOException e) {
+            System.err.println("Keeping message contents in memory: " + e.getMessage());
+            file = null;
+        }
+    }
+
+    /**
+     * Utility class, not meant to be instantiated.
+     */
+    private ContentStore() { }
+
+    /**
+     * Appends a content to the arena.
+     *
+     * @param bytes the content, encoded in UTF-8.
+     * @return the offset of the content in the arena.
+     */
+    static synchronized long store(final byte[] bytes) {
+        long offset = end;
+        ensureCapacity(offset + bytes.length);
+        copy(bytes, offset, true);
+        end += bytes.length;
+        return offset;
+    }
+
+    /**
+     * Reads and decodes a content of the arena.
+     *
+     * @param offset the offset of the content.
+     * @param length the length of the content, in bytes.
+     * @return the content.
+     */
+    static String load(final long offset, final int length) {
+        byte[] bytes = new byte[length];
+        copy(bytes, offset, false);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Retrieves the number of bytes used by the arena.
+     *
+     * @return the size of the stored contents, in bytes.
+     */
+    public static synchronized long size() {
+        return end;
+    }
+
+    /**
+     * Copies bytes to or from the arena. A content may span several chunks.
+     *
+     * @param bytes  the bytes to write, or the array receiving the read bytes.
+     * @param offset the offset in the arena.
+     * @param write  true to write to the arena, false to read from it.
+     */
+    private static void copy(final byte[] bytes, final long offset, final boolean write) {
+        ByteBuffer[] current = chunks;
+        int done = 0;
+        while (done < bytes.length) {
+            long position = offset + done;
+            // Duplicates have their own position, the shared chunks never move
+            ByteBuffer chunk = current[(int) (position / CHUNK_SIZE)].duplicate();
+            chunk.position((int) (position % CHUNK_SIZE));
+            int count = Math.min(bytes.length - done, chunk.remaining());
+            if (write) {
+                chunk.put(bytes, done, count);
+            } else {
+                chunk.get(bytes, done, count);
+            }
+            done += count;
+        }
+    }
+
+    /**
+     * Adds chunks until the arena can hold a given number of bytes.
+     *
+     * @param capacity the number of bytes.
+     */
+    private static void ensureCapacity(final long capacity) {
+        int needed = (int) ((capacity + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        if (needed <= chunks.length) {
+            return;
+        }
+        ByteBuffer[] grown = Arrays.copyOf(chunks, needed);
+        for (int i = chunks.length; i < needed; i++) {
+            grown[i] = allocateChunk(i);
+        }
+        chunks = grown;
+    }
+
+    /**
+     * Maps a chunk of the backing file, or allocates it in direct memory if
+     * the file cannot be mapped.
+     *
+     * @param index the index of the chunk.
+     * @return the chunk.
+     */
+    private static ByteBuffer allocateChunk(final int index) {
+        if (file != null) {
+            try {
+                return file.map(FileChannel.MapMode.READ_WRITE,
+                        (long) index * CHUNK_SIZE, CHUNK_SIZE);
+            } catch (IOException e) {
+                System.err.println("Keeping message contents in memory: " + e.getMessage());
+                file = null;
+            }
+        }
+        return ByteBuffer.allocateDirect(CHUNK_SIZE);
+    }
+}
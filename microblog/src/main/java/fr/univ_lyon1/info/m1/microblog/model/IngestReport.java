@@ -0,0 +1,81 @@
+package fr.univ_lyon1.info.m1.microblog.model;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a bulk ingest of users and messages into the model.
+ */
+public class IngestReport {
+    private final int nbUsers;
+    private final int nbMessages;
+    private final long elapsedNanos;
+
+    /**
+     * Constructs an ingest report.
+     *
+     * @param nbUsers      the number of created users.
+     * @param nbMessages   the number of posted messages.
+     * @param elapsedNanos the duration of the ingest, in nanoseconds.
+     */
+    public IngestReport(final int nbUsers, final int nbMessages, final long elapsedNanos) {
+        this.nbUsers = nbUsers;
+        this.nbMessages = nbMessages;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Retrieves the number of created users.
+     *
+     * @return the number of users.
+     */
+    public int getNbUsers() {
+        return nbUsers;
+    }
+
+    /**
+     * Retrieves the number of posted messages.
+     *
+     * @return the number of messages.
+     */
+    public int getNbMessages() {
+        return nbMessages;
+    }
+
+    /**
+     * Retrieves the duration of the ingest.
+     *
+     * @return the duration, in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * Computes the ingest throughput.
+     *
+     * @return the number of messages ingested per second.
+     */
+    public double getMessagesPerSecond() {
+        if (elapsedNanos == 0) {
+            return 0;
+        }
+        return nbMessages * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    /**
+     * Combines this report with the report of a following ingest.
+     *
+     * @param other the report of the following ingest.
+     * @return a report covering both ingests.
+     */
+    public IngestReport plus(final IngestReport other) {
+        return new IngestReport(nbUsers + other.nbUsers, nbMessages + other.nbMessages,
+                elapsedNanos + other.elapsedNanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Ingested %d users and %d messages in %d ms (%.0f messages/s)",
+                nbUsers, nbMessages, getElapsedMillis(), getMessagesPerSecond());
+    }
+}
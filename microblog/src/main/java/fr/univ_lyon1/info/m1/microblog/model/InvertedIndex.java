@@ -0,0 +1,91 @@
+package fr.univ_lyon1.info.m1.microblog.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inverted index of the messages of the model.
+ * For each term of the {@link TermDictionary}, keeps the posting list of the
+ * IDs of the messages containing it, so that the messages affected by a change
+ * of some words can be found without scanning every message.
+ * The index can be read while messages are added or removed, so that users
+ * can be scored concurrently.
+ */
+public class InvertedIndex {
+    /**
+     * Posting lists, indexed by term ID.
+     */
+    private final Map<Integer, Set<Long>> postings = new ConcurrentHashMap<>();
+
+    /**
+     * Adds a message to the posting lists of its terms.
+     *
+     * @param message the indexed message.
+     */
+    public void add(final Message message) {
+        for (int term : message.getTerms()) {
+            // Added while the posting list is locked, so that a concurrent
+            // removal emptying it cannot drop it in between
+            postings.compute(term, (t, ids) -> {
+                Set<Long> list = ids == null ? ConcurrentHashMap.newKeySet() : ids;
+                list.add(message.getId());
+                return list;
+            });
+        }
+    }
+
+    /**
+     * Adds several messages to the posting lists of their terms.
+     * The postings are grouped by term first, so each posting list is
+     * looked up and grown once rather than once per message.
+     *
+     * @param messages the indexed messages.
+     */
+    public void addAll(final Collection<Message> messages) {
+        Map<Integer, List<Long>> grouped = new HashMap<>();
+        for (Message message : messages) {
+            for (int term : message.getTerms()) {
+                grouped.computeIfAbsent(term, t -> new ArrayList<>()).add(message.getId());
+            }
+        }
+        grouped.forEach((term, added) -> postings.compute(term, (t, ids) -> {
+            Set<Long> list = ids == null ? ConcurrentHashMap.newKeySet() : ids;
+            list.addAll(added);
+            return list;
+        }));
+    }
+
+    /**
+     * Removes a message from the posting lists of its terms.
+     *
+     * @param message the removed message.
+     */
+    public void remove(final Message message) {
+        for (int term : message.getTerms()) {
+            postings.computeIfPresent(term, (t, ids) -> {
+                ids.remove(message.getId());
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+    }
+
+    /**
+     * Retrieves the IDs of the messages containing a term.
+     *
+     * @param term the term ID.
+     * @return an unmodifiable view of the posting list of the term.
+     */
+    public Set<Long> getPostings(final int term) {
+        Set<Long> ids = postings.get(term);
+        if (ids == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(ids);
+    }
+}
@@ -0,0 +1,45 @@
+package fr.univ_lyon1.info.m1.microblog.model;
+
+/**
+ * Receives the changes made to the model, e.g. to persist them.
+ * Each change is reported before it is applied to the model, so that
+ * replaying the reported changes in order rebuilds the same model.
+ * Every method does nothing by default.
+ */
+public interface Journal {
+    /**
+     * Journal ignoring every change.
+     */
+    Journal NONE = new Journal() { };
+
+    /**
+     * Reports the creation of a user.
+     *
+     * @param userId the ID of the created user.
+     */
+    default void userCreated(final String userId) { }
+
+    /**
+     * Reports the posting of a message.
+     *
+     * @param message the posted message.
+     */
+    default void messageAdded(final Message message) { }
+
+    /**
+     * Reports the deletion of a message.
+     *
+     * @param messageId the ID of the deleted message.
+     */
+    default void messageDeleted(final long messageId) { }
+
+    /**
+     * Reports a message being bookmarked or unbookmarked by a user.
+     *
+     * @param userId     the ID of the user.
+     * @param messageId  the ID of the message.
+     * @param bookmarked whether the message is now bookmarked.
+     */
+    default void bookmarkChanged(final String userId, final long messageId,
+                                 final boolean bookmarked) { }
+}
@@ -1,43 +1,129 @@
 package fr.univ_lyon1.info.m1.microblog.model;
 
-import java.util.Date;
-import java.util.UUID;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a message in the application.
  * Each message has a unique identifier, a publisher, content, and a timestamp.
+ * The content is split into words once, when the message is created, then
+ * kept off-heap in the {@link ContentStore} and decoded when it is read.
  */
 public class Message {
-    private final String id;
+    /**
+     * Format of the displayed dates, shared by all the messages (thread-safe).
+     */
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm:ss").withZone(ZoneId.systemDefault());
+    /**
+     * ID of the next created message. IDs are allocated in creation order,
+     * or reserved in ranges by {@link #reserveIds(int)}, without locking.
+     */
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    private final long id;
     private final String publisherId;
-    private final String content;
-    private final Date date;
+    /**
+     * Offset of the content in the {@link ContentStore}.
+     */
+    private final long contentOffset;
+    /**
+     * Length of the encoded content, in bytes, or -1 if there is no content
+     * in the {@link ContentStore}.
+     */
+    private final int contentLength;
+    /**
+     * Content kept on the heap instead, for the messages loaded from an
+     * {@link Archive}, or null.
+     */
+    private final String heapContent;
+    /**
+     * Creation date, in milliseconds since the epoch.
+     */
+    private final long date;
+    /**
+     * Lazily formatted creation date.
+     */
+    private volatile String formattedDate;
+    private final int[] terms;
+    /**
+     * Position of the message in the log of the model, set when it is posted.
+     */
+    private long logPosition = -1;
+    /**
+     * Cached contribution of the user-independent scoring rules.
+     */
+    private int staticScore;
+    /**
+     * Whether {@link #staticScore} was computed.
+     */
+    private volatile boolean staticScored = false;
+    /**
+     * Score of the message for the users with no personal contribution to it:
+     * its static score plus the contribution of the user-independent
+     * time-dependent rules, at the last tick it was scored for.
+     */
+    private volatile int baseScore;
 
     /**
      * Retrieves the unique identifier of the message.
      *
      * @return the ID of the message.
      */
-    public String getId() {
+    public long getId() {
         return id;
     }
 
     /**
      * Retrieves the date and time when the message was created.
      *
-     * @return the date of the message.
+     * @return the date of the message, in milliseconds since the epoch.
      */
-    public Date getDate() {
+    public long getDate() {
         return date;
     }
 
     /**
-     * Retrieves the content of the message.
+     * Retrieves the creation date formatted for display.
+     * The date is formatted once, on the first call.
+     *
+     * @return the formatted date of the message.
+     */
+    public String getFormattedDate() {
+        String formatted = formattedDate;
+        if (formatted == null) {
+            formatted = DATE_FORMAT.format(Instant.ofEpochMilli(date));
+            formattedDate = formatted;
+        }
+        return formatted;
+    }
+
+    /**
+     * Retrieves the content of the message, decoded from the {@link ContentStore}
+     * on each call unless the message was loaded from an {@link Archive}.
      *
      * @return the content of the message.
      */
     public String getContent() {
-        return content;
+        if (heapContent != null) {
+            return heapContent;
+        }
+        if (contentLength < 0) {
+            return null;
+        }
+        return ContentStore.load(contentOffset, contentLength);
+    }
+
+    /**
+     * Retrieves the distinct words of the content, as IDs of the {@link TermDictionary}.
+     *
+     * @return the sorted term IDs of the message, which must not be modified.
+     */
+    public int[] getTerms() {
+        return terms;
     }
 
     /**
@@ -49,6 +135,73 @@ public class Message {
         return publisherId;
     }
 
+    /**
+     * Tells whether the contribution of the user-independent scoring rules
+     * was computed for this message.
+     *
+     * @return true if the static score is cached.
+     */
+    public boolean hasStaticScore() {
+        return staticScored;
+    }
+
+    /**
+     * Retrieves the cached contribution of the user-independent scoring rules.
+     *
+     * @return the static score, only meaningful if {@link #hasStaticScore()}.
+     */
+    public int getStaticScore() {
+        return staticScore;
+    }
+
+    /**
+     * Caches the contribution of the user-independent scoring rules.
+     *
+     * @param staticScore the static score.
+     */
+    public void setStaticScore(final int staticScore) {
+        this.staticScore = staticScore;
+        this.staticScored = true;
+    }
+
+    /**
+     * Retrieves the score of the message shared by all the users with no
+     * personal contribution to it.
+     *
+     * @return the base score.
+     */
+    public int getBaseScore() {
+        return baseScore;
+    }
+
+    /**
+     * Sets the score of the message shared by all the users with no personal
+     * contribution to it.
+     *
+     * @param baseScore the base score.
+     */
+    public void setBaseScore(final int baseScore) {
+        this.baseScore = baseScore;
+    }
+
+    /**
+     * Retrieves the position of the message in the log of the model.
+     *
+     * @return the log position, or -1 if the message was not posted.
+     */
+    long getLogPosition() {
+        return logPosition;
+    }
+
+    /**
+     * Sets the position of the message in the log of the model.
+     *
+     * @param logPosition the log position.
+     */
+    void setLogPosition(final long logPosition) {
+        this.logPosition = logPosition;
+    }
+
     /**
      * Constructs a Message object with a publisher ID and content.
      * A unique ID is automatically generated for the message,
@@ -58,10 +211,91 @@ public class Message {
      * @param content     the content of the message.
      */
     public Message(final String publisherId, final String content) {
-        this.id = UUID.randomUUID().toString();
+        this(NEXT_ID.getAndIncrement(), publisherId, content);
+    }
+
+    /**
+     * Constructs a Message object with an ID reserved by {@link #reserveIds(int)},
+     * so that messages built on several threads keep the order of their IDs.
+     * The creation date is set to the current date and time.
+     *
+     * @param id          the reserved ID of the message.
+     * @param publisherId the ID of the user who publishes the message.
+     * @param content     the content of the message.
+     */
+    public Message(final long id, final String publisherId, final String content) {
+        this.id = id;
         this.publisherId = publisherId;
-        this.content = content;
-        this.date = new Date();
+        byte[] bytes = content == null ? null : content.getBytes(StandardCharsets.UTF_8);
+        this.contentLength = bytes == null ? -1 : bytes.length;
+        this.contentOffset = bytes == null ? 0 : ContentStore.store(bytes);
+        this.heapContent = null;
+        this.date = System.currentTimeMillis();
+        this.terms = Tokenizer.tokenize(content);
+    }
+
+    /**
+     * Reserves a range of consecutive IDs for messages created later.
+     *
+     * @param count the number of IDs to reserve.
+     * @return the first reserved ID.
+     */
+    public static long reserveIds(final int count) {
+        return NEXT_ID.getAndAdd(count);
+    }
+
+    /**
+     * Constructs a Message object restored from a previous run of the application,
+     * keeping its ID and creation date. IDs allocated afterwards are greater.
+     *
+     * @param id          the ID of the message.
+     * @param publisherId the ID of the user who published the message.
+     * @param content     the content of the message.
+     * @param date        the creation date, in milliseconds since the epoch.
+     */
+    public Message(final long id, final String publisherId, final String content,
+                   final long date) {
+        this(id, publisherId, content, date, true);
     }
 
+    /**
+     * Constructs a Message object loaded from an {@link Archive}, keeping its
+     * ID and creation date. Its content stays on the heap: archived messages
+     * are loaded again on each cache miss, and appending their content to the
+     * {@link ContentStore} each time would grow it without bound.
+     *
+     * @param id          the ID of the message.
+     * @param publisherId the ID of the user who published the message.
+     * @param content     the content of the message.
+     * @param date        the creation date, in milliseconds since the epoch.
+     * @return the message.
+     */
+    public static Message archived(final long id, final String publisherId,
+                                   final String content, final long date) {
+        return new Message(id, publisherId, content, date, false);
+    }
+
+    /**
+     * Constructs a Message object restored with its ID and creation date.
+     * IDs allocated afterwards are greater.
+     *
+     * @param id          the ID of the message.
+     * @param publisherId the ID of the user who published the message.
+     * @param content     the content of the message.
+     * @param date        the creation date, in milliseconds since the epoch.
+     * @param offHeap     whether the content goes to the {@link ContentStore}.
+     */
+    private Message(final long id, final String publisherId, final String content,
+                    final long date, final boolean offHeap) {
+        NEXT_ID.accumulateAndGet(id + 1, Math::max);
+        this.id = id;
+        this.publisherId = publisherId;
+        byte[] bytes = content == null || !offHeap
+                ? null : content.getBytes(StandardCharsets.UTF_8);
+        this.contentLength = bytes == null ? -1 : bytes.length;
+        this.contentOffset = bytes == null ? 0 : ContentStore.store(bytes);
+        this.heapContent = offHeap ? null : content;
+        this.date = date;
+        this.terms = Tokenizer.tokenize(content);
+    }
 }
@@ -1,8 +1,5 @@
 package fr.univ_lyon1.info.m1.microblog.model;
 
-import java.util.HashSet;
-import java.util.Set;
-
 /**
  * Represents the data associated with a message for a particular user.
  */
@@ -18,9 +15,10 @@ public class MessageData {
     private int score = -1;
 
     /**
-     * The set of words associated with the message.
+     * The contribution of each scoring rule to the score, kept between two
+     * scorings so that only the rules affected by a change are recomputed.
      */
-    private Set<String> words = new HashSet<>();
+    private int[] ruleScores;
 
     /**
      * Default constructor for MessageData.
@@ -39,39 +37,39 @@ public class MessageData {
     }
 
     /**
-     * Returns the set of words associated with the message.
+     * Returns the score of the message.
      *
-     * @return the set of words
+     * @return the score
      */
-    public Set<String> getWords() {
-        return words;
+    public int getScore() {
+        return score;
     }
 
     /**
-     * Sets the set of words associated with the message.
+     * Sets the score of the message.
      *
-     * @param words the set of words
+     * @param score the score
      */
-    public void setWords(final Set<String> words) {
-        this.words = words;
+    public void setScore(final int score) {
+        this.score = score;
     }
 
     /**
-     * Returns the score of the message.
+     * Returns the contribution of each scoring rule to the score.
      *
-     * @return the score
+     * @return the scores per rule, or null if the message was never scored
      */
-    public int getScore() {
-        return score;
+    public int[] getRuleScores() {
+        return ruleScores;
     }
 
     /**
-     * Sets the score of the message.
+     * Sets the contribution of each scoring rule to the score.
      *
-     * @param score the score
+     * @param ruleScores the scores per rule
      */
-    public void setScore(final int score) {
-        this.score = score;
+    public void setRuleScores(final int[] ruleScores) {
+        this.ruleScores = ruleScores;
     }
 
     /**
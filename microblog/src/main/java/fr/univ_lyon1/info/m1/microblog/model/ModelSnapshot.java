@@ -0,0 +1,83 @@
+package fr.univ_lyon1.info.m1.microblog.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * State of the model that has to be persisted: the users with their
+ * bookmarks, and the messages in posting order with their cached static score.
+ * The per-user scores are not part of it: they are recomputed incrementally
+ * when each user is scored.
+ */
+public class ModelSnapshot {
+    private final List<UserState> users;
+    private final List<Message> messages;
+
+    /**
+     * Constructs a snapshot.
+     *
+     * @param users    the state of each user, in creation order.
+     * @param messages the messages, in posting order.
+     */
+    public ModelSnapshot(final List<UserState> users, final List<Message> messages) {
+        this.users = Collections.unmodifiableList(users);
+        this.messages = Collections.unmodifiableList(messages);
+    }
+
+    /**
+     * Retrieves the state of each user.
+     *
+     * @return the users, in creation order.
+     */
+    public List<UserState> getUsers() {
+        return users;
+    }
+
+    /**
+     * Retrieves the messages.
+     *
+     * @return the messages, in posting order.
+     */
+    public List<Message> getMessages() {
+        return messages;
+    }
+
+    /**
+     * Persisted state of a user.
+     */
+    public static class UserState {
+        private final String id;
+        private final List<Long> bookmarkedIds;
+
+        /**
+         * Constructs the state of a user.
+         *
+         * @param id            the ID of the user.
+         * @param bookmarkedIds the IDs of the messages the user bookmarked.
+         */
+        public UserState(final String id, final Collection<Long> bookmarkedIds) {
+            this.id = id;
+            this.bookmarkedIds = Collections.unmodifiableList(new ArrayList<>(bookmarkedIds));
+        }
+
+        /**
+         * Retrieves the ID of the user.
+         *
+         * @return the ID of the user.
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Retrieves the IDs of the messages the user bookmarked.
+         *
+         * @return the bookmarked message IDs.
+         */
+        public List<Long> getBookmarkedIds() {
+            return bookmarkedIds;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package fr.univ_lyon1.info.m1.microblog.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Materialized ranking of messages.
+ * Messages are kept ordered by rank (bookmarked messages first, then by
+ * decreasing score), next to their data: re-ranking a message only moves its
+ * entry, and reading the best messages does not sort anything.
+ * Messages with the same rank are ordered by ID, i.e. by creation order, so
+ * that two rankings can be merged, see {@link #merge}.
+ */
+public class Ranking {
+    /**
+     * Ranked entries, best first.
+     */
+    private final TreeSet<Entry> entries = new TreeSet<>();
+    /**
+     * Ranked entries, indexed by message ID.
+     */
+    private final Map<Long, Entry> entriesById = new HashMap<>();
+    /**
+     * Number of changes of the entries above {@link User#VISIBILITY_THRESHOLD},
+     * i.e. of the displayed part of the ranking.
+     */
+    private long version = 0;
+
+    /**
+     * Ranks a message, or moves it to its new rank if its data changed.
+     *
+     * @param id   the ID of the message.
+     * @param data the user's data about the message.
+     */
+    public void update(final long id, final MessageData data) {
+        update(id, data.isBookmarked(), data.getScore());
+    }
+
+    /**
+     * Ranks a message, or moves it to its new rank if it changed.
+     *
+     * @param id         the ID of the message.
+     * @param bookmarked whether the message is bookmarked.
+     * @param score      the score of the message.
+     */
+    public void update(final long id, final boolean bookmarked, final int score) {
+        Entry old = entriesById.get(id);
+        if (old != null) {
+            if (old.score == score && old.bookmarked == bookmarked) {
+                return;
+            }
+            entries.remove(old);
+        }
+        Entry ranked = new Entry(id, bookmarked, score);
+        entries.add(ranked);
+        entriesById.put(id, ranked);
+        if (old != null && old.isVisible() || ranked.isVisible()) {
+            version++;
+        }
+    }
+
+    /**
+     * Tells whether a message is ranked.
+     *
+     * @param id the ID of the message.
+     * @return true if the message is part of the ranking.
+     */
+    public boolean contains(final long id) {
+        return entriesById.containsKey(id);
+    }
+
+    /**
+     * Removes a message from the ranking.
+     *
+     * @param id the ID of the message.
+     */
+    public void remove(final long id) {
+        Entry old = entriesById.remove(id);
+        if (old != null) {
+            entries.remove(old);
+            if (old.isVisible()) {
+                version++;
+            }
+        }
+    }
+
+    /**
+     * Retrieves the number of changes of the displayed part of the ranking,
+     * i.e. of the messages whose score is above {@link User#VISIBILITY_THRESHOLD}.
+     *
+     * @return a counter that only increases.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Retrieves the best ranked messages of two rankings whose score is above
+     * a threshold, as if they were a single ranking in which the entries of
+     * the first one replace those of the second one for the same messages.
+     * Both rankings are walked in rank order, so this does not sort anything.
+     *
+     * @param first     the ranking whose entries take precedence.
+     * @param second    the other ranking.
+     * @param threshold the score messages must be strictly greater than.
+     * @param limit     the maximum number of messages to retrieve.
+     * @return the best ranked entries, best first.
+     */
+    public static List<Entry> merge(final Ranking first, final Ranking second,
+                                    final int threshold, final int limit) {
+        return top(first.entries.iterator(), second.entries.iterator(), first,
+                threshold, limit);
+    }
+
+    /**
+     * Merges two sequences of entries in rank order, keeping the best ones.
+     *
+     * @param first     the entries taking precedence, best first.
+     * @param second    the other entries, best first.
+     * @param skipped   the ranking whose messages are skipped in the second
+     *                  entries, or null.
+     * @param threshold the score messages must be strictly greater than.
+     * @param limit     the maximum number of messages to retrieve.
+     * @return the best ranked entries, best first.
+     */
+    private static List<Entry> top(final Iterator<Entry> first, final Iterator<Entry> second,
+                                   final Ranking skipped, final int threshold,
+                                   final int limit) {
+        List<Entry> top = new ArrayList<>();
+        Entry a = next(first, null);
+        Entry b = next(second, skipped);
+        while (top.size() < limit && (a != null || b != null)) {
+            Entry best;
+            if (b == null || a != null && a.compareTo(b) <= 0) {
+                best = a;
+                a = next(first, null);
+            } else {
+                best = b;
+                b = next(second, skipped);
+            }
+            if (best.score > threshold) {
+                top.add(best);
+            } else if (!best.bookmarked) {
+                // Unbookmarked messages come last, by decreasing score: none is left
+                break;
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Retrieves the next entry of a sequence whose message is not skipped.
+     *
+     * @param entries the entries.
+     * @param skipped the ranking whose messages are skipped, or null.
+     * @return the next entry, or null if there is none.
+     */
+    private static Entry next(final Iterator<Entry> entries, final Ranking skipped) {
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (skipped == null || !skipped.contains(entry.id)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of ranked messages.
+     *
+     * @return the size of the ranking.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Snapshot of the rank of a message, which must not change while it is
+     * part of the ranking.
+     */
+    public static final class Entry implements Comparable<Entry> {
+        private final long id;
+        private final boolean bookmarked;
+        private final int score;
+
+        /**
+         * Constructs a ranked message.
+         *
+         * @param id         the ID of the message.
+         * @param bookmarked whether the message is bookmarked.
+         * @param score      the score of the message.
+         */
+        Entry(final long id, final boolean bookmarked, final int score) {
+            this.id = id;
+            this.bookmarked = bookmarked;
+            this.score = score;
+        }
+
+        /**
+         * Retrieves the ID of the ranked message.
+         *
+         * @return the ID of the message.
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * Tells whether the message was bookmarked when it was ranked.
+         *
+         * @return true if the message is bookmarked.
+         */
+        public boolean isBookmarked() {
+            return bookmarked;
+        }
+
+        /**
+         * Retrieves the score of the message when it was ranked.
+         *
+         * @return the score of the message.
+         */
+        public int getScore() {
+            return score;
+        }
+
+        /**
+         * Tells whether the message is displayed in timelines.
+         *
+         * @return true if the score is above {@link User#VISIBILITY_THRESHOLD}.
+         */
+        private boolean isVisible() {
+            return score > User.VISIBILITY_THRESHOLD;
+        }
+
+        @Override
+        public int compareTo(final Entry other) {
+            if (bookmarked != other.bookmarked) {
+                return bookmarked ? -1 : 1;
+            }
+            if (score != other.score) {
+                return Integer.compare(other.score, score);
+            }
+            return Long.compare(id, other.id);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package fr.univ_lyon1.info.m1.microblog.model;
+
+import java.time.Duration;
+
+/**
+ * Hot window of the model: the messages outside of it are moved to an
+ * {@link Archive} and no longer scored.
+ * Messages leave the window in posting order, once they are older than a
+ * maximum age or once more recent messages exceed a maximum count.
+ * To move messages by batches rather than one by one, the window may
+ * overflow by a tenth of its size before messages are moved out of it.
+ * Bookmarked messages stay hot and do not count in the window.
+ */
+public final class RetentionPolicy {
+    /**
+     * Policy keeping every message hot.
+     */
+    public static final RetentionPolicy KEEP_ALL =
+            new RetentionPolicy(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    private final long maxAgeMillis;
+    private final long maxCount;
+
+    /**
+     * Constructs a policy.
+     *
+     * @param maxAgeMillis the maximum age of the hot messages, in milliseconds.
+     * @param maxCount     the maximum number of hot messages.
+     */
+    private RetentionPolicy(final long maxAgeMillis, final long maxCount) {
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxCount = maxCount;
+    }
+
+    /**
+     * Policy keeping the messages posted within a duration hot.
+     *
+     * @param maxAge the maximum age of the hot messages.
+     * @return the policy.
+     */
+    public static RetentionPolicy byAge(final Duration maxAge) {
+        return new RetentionPolicy(maxAge.toMillis(), Long.MAX_VALUE);
+    }
+
+    /**
+     * Policy keeping the most recent messages hot.
+     *
+     * @param maxCount the maximum number of hot messages.
+     * @return the policy.
+     */
+    public static RetentionPolicy byCount(final long maxCount) {
+        return new RetentionPolicy(Long.MAX_VALUE, maxCount);
+    }
+
+    /**
+     * Tells whether the window overflowed enough for messages to be moved out.
+     *
+     * @param count      the number of hot messages.
+     * @param oldestDate the creation date of the oldest hot message.
+     * @param now        the current time, in milliseconds since the epoch.
+     * @return true if messages should be moved out of the window.
+     */
+    boolean overflows(final long count, final long oldestDate, final long now) {
+        long ageSlack = Math.min(maxAgeMillis / 10, Long.MAX_VALUE - maxAgeMillis);
+        return count - maxCount > maxCount / 10
+                || now - oldestDate > maxAgeMillis + ageSlack;
+    }
+
+    /**
+     * Tells whether a message is outside of the window.
+     *
+     * @param count the number of hot messages, this one included, not moved out yet.
+     * @param date  the creation date of the message.
+     * @param now   the current time, in milliseconds since the epoch.
+     * @return true if the message should be moved out of the window.
+     */
+    boolean isCold(final long count, final long date, final long now) {
+        return count > maxCount || now - date > maxAgeMillis;
+    }
+}
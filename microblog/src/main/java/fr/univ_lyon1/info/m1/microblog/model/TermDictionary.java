@@ -0,0 +1,62 @@
+package fr.univ_lyon1.info.m1.microblog.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Global dictionary of the words used in messages.
+ * Each distinct word is given a small integer ID, so that scoring rules can
+ * work on primitive term IDs instead of hashing and comparing strings.
+ * IDs are allocated densely from 0 and never reused.
+ */
+public final class TermDictionary {
+    /**
+     * IDs of the known words.
+     */
+    private static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+    /**
+     * Known words, indexed by their ID.
+     */
+    private static final List<String> TERMS = new ArrayList<>();
+
+    /**
+     * Utility class, not meant to be instantiated.
+     */
+    private TermDictionary() { }
+
+    /**
+     * Returns the ID of a word, allocating a new one if the word is unknown.
+     *
+     * @param term the lower-cased word.
+     * @return the ID of the word.
+     */
+    public static int idOf(final String term) {
+        Integer id = IDS.get(term);
+        if (id != null) {
+            return id;
+        }
+        synchronized (TERMS) {
+            id = IDS.get(term);
+            if (id == null) {
+                id = TERMS.size();
+                TERMS.add(term);
+                IDS.put(term, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Returns the word associated with an ID.
+     *
+     * @param id the ID of the word.
+     * @return the word.
+     */
+    public static String termOf(final int id) {
+        synchronized (TERMS) {
+            return TERMS.get(id);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package fr.univ_lyon1.info.m1.microblog.model;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import fr.univ_lyon1.info.m1.microblog.model.scoring.RecencyBuckets;
+
+/**
+ * Index of the messages of the model by date.
+ * Used to find the messages that crossed a boundary of {@link RecencyBuckets}
+ * between two clock ticks, without scanning every message.
+ */
+public class TimeIndex {
+    /**
+     * IDs of the messages, indexed by date in milliseconds since the epoch.
+     */
+    private final ConcurrentSkipListMap<Long, Set<Long>> messagesByDate =
+            new ConcurrentSkipListMap<>();
+
+    /**
+     * Adds a message to the index.
+     *
+     * @param message the indexed message.
+     */
+    public void add(final Message message) {
+        // Added within the update of the entry, so that a concurrent removal
+        // emptying it cannot drop it in between
+        messagesByDate.compute(message.getDate(), (d, ids) -> {
+            Set<Long> sameDate = ids == null ? ConcurrentHashMap.newKeySet() : ids;
+            sameDate.add(message.getId());
+            return sameDate;
+        });
+    }
+
+    /**
+     * Adds several messages to the index.
+     *
+     * @param messages the indexed messages.
+     */
+    public void addAll(final Collection<Message> messages) {
+        for (Message message : messages) {
+            add(message);
+        }
+    }
+
+    /**
+     * Removes a message from the index.
+     *
+     * @param message the removed message.
+     */
+    public void remove(final Message message) {
+        messagesByDate.computeIfPresent(message.getDate(), (d, ids) -> {
+            ids.remove(message.getId());
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    /**
+     * Retrieves the messages that moved to an older bucket between two ticks.
+     *
+     * @param from the time of the first tick, in milliseconds since the epoch.
+     * @param to   the time of the second tick, in milliseconds since the epoch.
+     * @return the IDs of the messages that crossed a bucket boundary.
+     */
+    public Collection<Long> getIdsCrossingBuckets(final long from, final long to) {
+        Set<Long> crossing = new LinkedHashSet<>();
+        if (to <= from) {
+            return crossing;
+        }
+        // A message leaves the bucket bounded by age b once to - date >= b
+        for (long boundary : RecencyBuckets.getBoundaries()) {
+            for (Set<Long> ids
+                    : messagesByDate.subMap(from - boundary, false, to - boundary, true).values()) {
+                crossing.addAll(ids);
+            }
+        }
+        return crossing;
+    }
+}
@@ -0,0 +1,58 @@
+package fr.univ_lyon1.info.m1.microblog.model;
+
+import java.util.Arrays;
+
+/**
+ * Splits message contents into words.
+ * A word is a maximal sequence of ASCII letters, lower-cased. Words are
+ * returned as their IDs in the {@link TermDictionary}.
+ */
+public final class Tokenizer {
+    /**
+     * Term array of texts without any word.
+     */
+    private static final int[] NO_TERMS = new int[0];
+
+    /**
+     * Utility class, not meant to be instantiated.
+     */
+    private Tokenizer() { }
+
+    /**
+     * Returns the distinct words of a text.
+     *
+     * @param text the text to split.
+     * @return the sorted IDs of the distinct words of the text.
+     */
+    public static int[] tokenize(final String text) {
+        if (text == null || text.isEmpty()) {
+            return NO_TERMS;
+        }
+        int[] terms = new int[text.length() / 2 + 1];
+        int nbTerms = 0;
+        char[] buffer = new char[text.length()];
+        int length = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (c >= 'A' && c <= 'Z') {
+                buffer[length++] = (char) (c - 'A' + 'a');
+            } else if (c >= 'a' && c <= 'z') {
+                buffer[length++] = c;
+            } else if (length > 0) {
+                terms[nbTerms++] = TermDictionary.idOf(new String(buffer, 0, length));
+                length = 0;
+            }
+        }
+        if (nbTerms == 0) {
+            return NO_TERMS;
+        }
+        Arrays.sort(terms, 0, nbTerms);
+        int distinct = 1;
+        for (int i = 1; i < nbTerms; i++) {
+            if (terms[i] != terms[distinct - 1]) {
+                terms[distinct++] = terms[i];
+            }
+        }
+        return Arrays.copyOf(terms, distinct);
+    }
+}
@@ -1,18 +1,69 @@
 package fr.univ_lyon1.info.m1.microblog.model;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.LinkedHashMap;
-import java.util.stream.Collectors;
-import java.util.Map.Entry;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import fr.univ_lyon1.info.m1.microblog.model.scoring.ScoringEvent;
 
 /**
  * Represents a user of the application.
  * Each user has a unique identifier and can bookmark messages.
+ * The user's data is a sparse overlay on the messages of the model: it only
+ * holds the messages whose state for this user differs from the one shared
+ * by all users, i.e. the bookmarked messages and those to which a personalized
+ * scoring rule contributes. The other messages have their base score, and
+ * are ranked once for all users by the model.
+ * Methods changing or reading the user's data synchronize on the user, so
+ * that it can be scored on another thread than the one displaying it.
  */
 public class User {
+    /**
+     * Messages whose score is lower than or equal to this threshold are not displayed.
+     */
+    public static final int VISIBILITY_THRESHOLD = 1;
+
     private final String id;
-    private final LinkedHashMap<String, MessageData> messagesData;
+    /**
+     * The user's data about the messages whose state is personal.
+     */
+    private final LinkedHashMap<Long, MessageData> messagesData;
+    /**
+     * IDs of the bookmarked messages, kept in sync with {@link #messagesData}.
+     */
+    private final Set<Long> bookmarkedIds = new LinkedHashSet<>();
+    /**
+     * Events that occurred since the last scoring.
+     */
+    private final Set<ScoringEvent> pendingEvents = EnumSet.noneOf(ScoringEvent.class);
+    /**
+     * Time of the last scoring, in milliseconds since the epoch.
+     */
+    private long lastScoredAt = 0;
+    /**
+     * Log position of the last message of the model read by the last scoring:
+     * the messages after it were never scored for the user.
+     */
+    private long logPosition = -1;
+    /**
+     * Words of the bookmarked messages at the last scoring.
+     */
+    private BitSet scoredBookmarkTerms = new BitSet();
+    /**
+     * The messages of {@link #messagesData} ordered by rank.
+     */
+    private final Ranking ranking = new Ranking();
+    /**
+     * Versions of the rankings making up the timeline at the last scoring,
+     * or -1 if the user was never scored.
+     */
+    private long rankingVersion = -1;
 
     @Override
     public int hashCode() {
@@ -58,18 +109,35 @@ public class User {
     }
 
     /**
-     * Bookmarks a message by its ID.
+     * Bookmarks a message by its ID. The message is added to the user's data
+     * if it had no personal state yet.
      *
      * @param messageId the ID of the message to be bookmarked.
-     * @return true if the message was successfully bookmarked, false otherwise.
+     * @param baseScore the base score of the message, used if it had no
+     *                  personal state yet.
      */
-    public boolean bookmarkMessage(final String messageId) {
-        if (this.messagesData.containsKey(messageId)) {
-            this.messagesData.get(messageId).setBookmarked(true);
-            return true;
+    public synchronized void bookmarkMessage(final long messageId, final int baseScore) {
+        MessageData data = this.messagesData.get(messageId);
+        if (data == null) {
+            data = new MessageData(false, baseScore);
+            this.messagesData.put(messageId, data);
+        }
+        if (!data.isBookmarked()) {
+            data.setBookmarked(true);
+            bookmarkedIds.add(messageId);
+            ranking.update(messageId, data);
+            pendingEvents.add(ScoringEvent.BOOKMARK_CHANGE);
         }
-        return false;
+    }
 
+    /**
+     * Tells whether a message is bookmarked.
+     *
+     * @param messageId the ID of the message.
+     * @return true if the message is bookmarked.
+     */
+    public synchronized boolean isBookmarked(final long messageId) {
+        return bookmarkedIds.contains(messageId);
     }
 
     /**
@@ -77,75 +145,173 @@ public class User {
      *
      * @return a collection of message IDs that are bookmarked.
      */
-    public Collection<String> getBookmarkedMessage() {
-        return messagesData.entrySet()
-                .stream()
-                .filter(entry -> entry.getValue().isBookmarked())
-                .map(Entry::getKey)
-                .collect(Collectors.toList());
+    public synchronized Collection<Long> getBookmarkedMessage() {
+        return new ArrayList<>(bookmarkedIds);
     }
 
     /**
-     * Removes the bookmark from a message by its ID.
+     * Removes the bookmark from a message by its ID. The message leaves the
+     * user's data if it has no other personal state.
      *
      * @param messageId the ID of the message to unbookmark.
-     * @return true if the message was successfully unbookmarked, false otherwise.
+     * @return true if the message was bookmarked, false otherwise.
      */
-    public boolean removeBookmarkedMessage(final String messageId) {
-        if (this.messagesData.containsKey(messageId)) {
-            this.messagesData.get(messageId).setBookmarked(false);
-            return true;
+    public synchronized boolean removeBookmarkedMessage(final long messageId) {
+        MessageData data = this.messagesData.get(messageId);
+        if (data == null || !data.isBookmarked()) {
+            return false;
         }
-        return false;
+        data.setBookmarked(false);
+        bookmarkedIds.remove(messageId);
+        pendingEvents.add(ScoringEvent.BOOKMARK_CHANGE);
+        updateMessage(messageId, data);
+        return true;
     }
 
     /**
-     * Retrieves the messages data associated with the user.
+     * Retrieves the messages data associated with the user: only the messages
+     * whose state is personal, the others have their base score.
      *
-     * @return a LinkedHashMap of message IDs and their corresponding MessageData.
+     * @return a copy of the map of message IDs to their MessageData, in insertion order.
      */
-    public LinkedHashMap<String, MessageData> getMessagesData() {
+    public synchronized Map<Long, MessageData> getMessagesData() {
+        return new LinkedHashMap<>(messagesData);
+    }
+
+    /**
+     * Retrieves the live messages data associated with the user, e.g. to
+     * score it without copying it. Callers must synchronize on the user.
+     *
+     * @return the map of message IDs to their MessageData.
+     */
+    Map<Long, MessageData> getLiveMessagesData() {
         return messagesData;
     }
 
     /**
-     * Adds a new message to the user's data by its ID.
+     * Stores the user's data about a scored message, and re-ranks it. The
+     * data is only kept if it differs from the state shared by all users.
+     *
+     * @param messageId the ID of the message.
+     * @param data      the user's data about the message.
+     */
+    public synchronized void updateMessage(final long messageId, final MessageData data) {
+        if (isShared(data)) {
+            this.messagesData.remove(messageId);
+            this.ranking.remove(messageId);
+        } else {
+            this.messagesData.put(messageId, data);
+            this.ranking.update(messageId, data);
+        }
+    }
+
+    /**
+     * Tells whether the user's data about a message is the state shared by
+     * all users: not bookmarked, and with no personal contribution to the score.
      *
-     * @param messageId the ID of the new message.
+     * @param data the user's data about a message.
+     * @return true if the data does not have to be kept.
      */
-    public void addNewMessage(final String messageId) {
-        this.messagesData.put(messageId, new MessageData());
+    private static boolean isShared(final MessageData data) {
+        if (data.isBookmarked()) {
+            return false;
+        }
+        if (data.getRuleScores() != null) {
+            for (int ruleScore : data.getRuleScores()) {
+                if (ruleScore != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     /**
-     * Updates the user's messages data with new data.
+     * Removes a message from the user's data.
      *
-     * @param updatedMessages a LinkedHashMap containing updated message data.
+     * @param messageId the ID of the removed message.
      */
-    public void updateMessages(final LinkedHashMap<String, MessageData> updatedMessages) {
-        this.messagesData.clear();
-        this.messagesData.putAll(updatedMessages);
+    public synchronized void removeMessage(final long messageId) {
+        this.messagesData.remove(messageId);
+        this.ranking.remove(messageId);
+        if (this.bookmarkedIds.remove(messageId)) {
+            this.pendingEvents.add(ScoringEvent.BOOKMARK_CHANGE);
+        }
     }
 
     /**
-     * Sorts the user's messages based on score and bookmark status.
+     * Retrieves the events that occurred since the last scoring.
+     *
+     * @return the pending scoring events.
      */
-    public void sortMessages() {
-        LinkedHashMap<String, MessageData> sortedMessageList = new LinkedHashMap<>();
-        this.messagesData.entrySet()
-                .stream()
-                .filter(entry -> entry.getValue().getScore() > 1)
-                .sorted(Collections.reverseOrder((Entry<String, MessageData> left,
-                                                  Entry<String, MessageData> right) ->
-                        left.getValue().compare(right.getValue())))
-                .sorted(Collections.reverseOrder((Entry<String, MessageData> left,
-                                                  Entry<String, MessageData> right) ->
-                        Boolean.compare(left.getValue().isBookmarked(),
-                                                          right.getValue().isBookmarked())))
-                .forEach((Entry<String, MessageData> e) ->
-                        sortedMessageList.put(e.getKey(), e.getValue()));
-        this.messagesData.clear();
-        this.messagesData.putAll(sortedMessageList);
+    public Set<ScoringEvent> getPendingEvents() {
+        return Collections.unmodifiableSet(pendingEvents);
     }
 
+    /**
+     * Retrieves the time of the last scoring.
+     *
+     * @return the time of the last scoring, in milliseconds since the epoch.
+     */
+    public long getLastScoredAt() {
+        return lastScoredAt;
+    }
+
+    /**
+     * Retrieves the words of the bookmarked messages at the last scoring.
+     *
+     * @return the bookmarked term IDs at the last scoring.
+     */
+    public BitSet getScoredBookmarkTerms() {
+        return scoredBookmarkTerms;
+    }
+
+    /**
+     * Retrieves the log position of the last message read from the model.
+     * The messages posted after it were never scored for the user.
+     *
+     * @return the log position, or -1 if no message was read.
+     */
+    public long getLogPosition() {
+        return logPosition;
+    }
+
+    /**
+     * Marks the user's messages as scored, clearing the pending events.
+     *
+     * @param time           the time of the scoring, in milliseconds since the epoch.
+     * @param bookmarkTerms  the words of the bookmarked messages used for the scoring.
+     * @param logPosition    the log position of the last message read for the scoring.
+     */
+    public synchronized void markScored(final long time, final BitSet bookmarkTerms,
+                           final long logPosition) {
+        this.pendingEvents.clear();
+        this.lastScoredAt = time;
+        this.scoredBookmarkTerms = bookmarkTerms;
+        this.logPosition = logPosition;
+    }
+
+    /**
+     * Records the versions of the rankings making up the timeline, once it
+     * is scored.
+     *
+     * @param version the sum of the versions of the user's ranking and of
+     *                the ranking shared by all users.
+     * @return true if the timeline changed since the last scoring.
+     */
+    synchronized boolean markRankingVersion(final long version) {
+        boolean changed = version != rankingVersion;
+        rankingVersion = version;
+        return changed;
+    }
+
+    /**
+     * Retrieves the ranking of the messages of the user's data. Callers must
+     * synchronize on the user.
+     *
+     * @return the ranking of the messages whose state is personal.
+     */
+    Ranking getRanking() {
+        return ranking;
+    }
 }
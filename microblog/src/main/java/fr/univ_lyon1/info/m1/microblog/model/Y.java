@@ -2,27 +2,159 @@ package fr.univ_lyon1.info.m1.microblog.model;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.Arrays;
-import java.util.HashSet;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
+import fr.univ_lyon1.info.m1.microblog.model.scoring.BookmarkChange;
+import fr.univ_lyon1.info.m1.microblog.model.scoring.RecencyBuckets;
+import fr.univ_lyon1.info.m1.microblog.model.scoring.ScoringEvent;
 import fr.univ_lyon1.info.m1.microblog.model.scoring.ScoringManager;
+import fr.univ_lyon1.info.m1.microblog.model.scoring.TimelineChanges;
+import fr.univ_lyon1.info.m1.microblog.observer.ChangeSet;
 import fr.univ_lyon1.info.m1.microblog.observer.Observer;
 
 
 /**
  * Toplevel class for the Y microblogging application's model.
  * This class manages users, messages, and observers in the application.
+ *
+ * The model can be changed from any thread. Registries and indexes are
+ * concurrent collections, posted messages go to a lock-free log, and the
+ * data of each user is guarded by the user's own lock, so that posting and
+ * bookmarking from many threads only contend on the same user.
+ *
+ * Users do not hold a copy of every message: the messages are ranked once by
+ * their base score, shared by all users, and each user only keeps the
+ * messages whose state is personal. A timeline merges both rankings.
  */
 public class Y {
-    private final List<User> users = new ArrayList<>();
-    private final List<Message> messages = new ArrayList<>();
-    private final List<Observer> observers = new ArrayList<>();
+    /**
+     * Number of busy-waiting iterations before a writer waiting for the
+     * previous ones yields its processor.
+     */
+    private static final int SPINS_BEFORE_YIELD = 100;
+
+    /**
+     * Users indexed by their ID, for constant-time lookups.
+     */
+    private final Map<String, User> usersById = new ConcurrentHashMap<>();
+    /**
+     * Users in creation order, backing {@link #getUsers()}.
+     */
+    private final List<User> users = new CopyOnWriteArrayList<>();
+    /**
+     * Messages indexed by their ID, for constant-time lookups and deletions.
+     */
+    private final Map<Long, Message> messagesById = new ConcurrentHashMap<>();
+    /**
+     * Messages in posting order, indexed by their log position. Users derive
+     * their timeline from this shared log instead of receiving each message.
+     */
+    private final ConcurrentSkipListMap<Long, Message> messageLog = new ConcurrentSkipListMap<>();
+    /**
+     * Log position of the next posted message.
+     */
+    private final AtomicLong nextLogPosition = new AtomicLong();
+    /**
+     * Log position below which every posted message is in the log. Users do
+     * not read the log past it, so that they never skip a message whose
+     * position is allocated but which is still being inserted.
+     */
+    private final AtomicLong publishedPosition = new AtomicLong();
+    /**
+     * Messages indexed by the words they contain.
+     */
+    private final InvertedIndex invertedIndex = new InvertedIndex();
+    /**
+     * Messages indexed by date, to find those whose recency bucket changed.
+     */
+    private final TimeIndex timeIndex = new TimeIndex();
+    /**
+     * Hot messages ranked by base score, shared by all users. Also guards
+     * {@link #baseScoredAt} and the base score of the messages.
+     */
+    private final Ranking baseRanking = new Ranking();
+    /**
+     * Time of the tick the base scores were last updated for.
+     */
+    private long baseScoredAt = RecencyBuckets.getTickTime();
+    private final List<Observer> observers = new CopyOnWriteArrayList<>();
+    /**
+     * Lock guarding {@link #batchDepth} and {@link #batchedChanges}.
+     */
+    private final Object batchLock = new Object();
+    /**
+     * Number of nested {@link #batch} calls in progress.
+     */
+    private int batchDepth = 0;
+    /**
+     * Changes made during the batch in progress, notified when it ends.
+     */
+    private ChangeSet.Builder batchedChanges = new ChangeSet.Builder();
     private final ScoringManager scoringManager = new ScoringManager();
+    /**
+     * Executor on which users are scored by {@link #rescoreAsync}.
+     */
+    private volatile Executor scoringExecutor = ForkJoinPool.commonPool();
+    /**
+     * Journal receiving the changes made to the model.
+     */
+    private volatile Journal journal = Journal.NONE;
+    /**
+     * Lock shared by the changes of the model, and taken exclusively to
+     * capture a consistent state of the model.
+     */
+    private final ReadWriteLock changeLock = new ReentrantReadWriteLock();
+    /**
+     * Hot window of the messages; the messages outside of it are moved to
+     * {@link #archive}, if any.
+     */
+    private volatile RetentionPolicy retention = RetentionPolicy.KEEP_ALL;
+    /**
+     * Cold tier of the messages, or null to keep every message hot.
+     */
+    private volatile Archive archive = null;
+    /**
+     * Lock ensuring that messages are moved out of the hot window by one
+     * thread at a time.
+     */
+    private final Object retentionLock = new Object();
+    /**
+     * Log position from which the hot window is checked: the messages before
+     * it were bookmarked when it was last enforced, and stay hot.
+     */
+    private volatile long retentionStart = 0;
+    /**
+     * Number of hot bookmarked messages when the window was last enforced.
+     * They do not count in the window.
+     */
+    private volatile long pinnedCount = 0;
+    /**
+     * Number of bookmarks removed so far: once it changes, the messages
+     * before {@link #retentionStart} may leave the window again.
+     */
+    private final AtomicLong unpinCount = new AtomicLong();
+    /**
+     * Value of {@link #unpinCount} when the window was last enforced.
+     */
+    private volatile long checkedUnpinCount = 0;
 
     /**
      * Adds a new view (observer) to the list of observers and updates it.
@@ -31,15 +163,61 @@ public class Y {
      */
     public void addView(final Observer observer) {
         this.observers.add(observer);
-        observer.update();
+        observer.update(ChangeSet.everything());
     }
 
     /**
-     * Notifies all registered observers about changes in the model.
+     * Notifies all registered observers that anything in the model may have changed.
      */
     public void notifyObservers() {
+        notifyObservers(ChangeSet.everything());
+    }
+
+    /**
+     * Notifies all registered observers about some changes in the model.
+     * During a {@link #batch}, the changes are aggregated instead, and only
+     * notified once the batch ends.
+     *
+     * @param changes what changed in the model
+     */
+    public void notifyObservers(final ChangeSet changes) {
+        synchronized (batchLock) {
+            if (batchDepth > 0) {
+                batchedChanges.add(changes);
+                return;
+            }
+        }
         for (Observer observer : observers) {
-            observer.update();
+            observer.update(changes);
+        }
+    }
+
+    /**
+     * Applies several changes to the model as a single transaction for the
+     * observers: they are notified once, with the aggregated changes, when
+     * the changes are done. Batches can be nested, the observers are then
+     * notified when the outermost one ends.
+     *
+     * @param changes the changes to apply
+     */
+    public void batch(final Runnable changes) {
+        synchronized (batchLock) {
+            batchDepth++;
+        }
+        try {
+            changes.run();
+        } finally {
+            ChangeSet.Builder done = null;
+            synchronized (batchLock) {
+                batchDepth--;
+                if (batchDepth == 0 && !batchedChanges.isEmpty()) {
+                    done = batchedChanges;
+                    batchedChanges = new ChangeSet.Builder();
+                }
+            }
+            if (done != null) {
+                notifyObservers(done.build());
+            }
         }
     }
 
@@ -50,33 +228,108 @@ public class Y {
      */
     public void createUser(final String id) {
         User u = new User(id);
-        users.add(u);
-        notifyObservers();
+        changeLock.readLock().lock();
+        try {
+            if (usersById.putIfAbsent(id, u) != null) {
+                return;
+            }
+            journal.userCreated(id);
+            users.add(u);
+        } finally {
+            changeLock.readLock().unlock();
+        }
+        notifyObservers(ChangeSet.userAdded(id));
+    }
+
+    /**
+     * Loads many users and messages at once, e.g. at startup.
+     * Unlike calling {@link #createUser} and {@link #add} for each of them, the
+     * registries and indexes are filled in one pass, presized for the whole
+     * corpus, and the observers are notified once, when everything is loaded.
+     * The messages are appended to the log last, so that users scored in the
+     * meantime only see fully indexed messages.
+     *
+     * @param userIds  the IDs of the users to create; existing users are ignored
+     * @param messages the messages to post, in posting order
+     * @return a report of the ingest, with its throughput
+     * @throws java.io.UncheckedIOException if older messages cannot be archived, see
+     *                                      {@link #enforceRetention()}
+     */
+    public IngestReport ingest(final Collection<String> userIds,
+                               final Collection<Message> messages) {
+        long start = System.nanoTime();
+        List<User> newUsers = new ArrayList<>(userIds.size());
+        changeLock.readLock().lock();
+        try {
+            for (String id : userIds) {
+                User u = new User(id);
+                if (usersById.putIfAbsent(id, u) == null) {
+                    journal.userCreated(id);
+                    newUsers.add(u);
+                }
+            }
+            // A single copy of the copy-on-write list for all the new users
+            users.addAll(newUsers);
+
+            Map<Long, Message> byId = new HashMap<>(messages.size() * 2);
+            for (Message message : messages) {
+                journal.messageAdded(message);
+                byId.put(message.getId(), message);
+            }
+            // Indexed before being visible, so that a deletion unindexes them
+            invertedIndex.addAll(messages);
+            timeIndex.addAll(messages);
+            long first = nextLogPosition.getAndAdd(messages.size());
+            long position = first;
+            for (Message message : messages) {
+                message.setLogPosition(position++);
+            }
+            // In the log before being found by ID, so that a deletion unlogs them
+            for (Message message : messages) {
+                messageLog.put(message.getLogPosition(), message);
+            }
+            // Presizes the table once for the whole corpus
+            messagesById.putAll(byId);
+            rankBase(messages);
+            publish(first, position);
+        } finally {
+            changeLock.readLock().unlock();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (!newUsers.isEmpty() || !messages.isEmpty()) {
+            notifyObservers(ChangeSet.everything());
+        }
+        if (!messages.isEmpty()) {
+            enforceRetention();
+        }
+        return new IngestReport(newUsers.size(), messages.size(), elapsed);
     }
 
     /**
      * Creates an example set of users and messages for testing purposes.
      */
     public void createExampleMessages() {
-        createUser("foo");
-        createUser("bar");
-        Message m1 = new Message("foo", "Hello, world!");
-        add(m1);
-        Message m2 = new Message("foo", "What is this message?");
-        add(m2);
-        add(new Message("bar", "Good bye, world!"));
-        add(new Message("bar", "Hello, you!"));
-        add(new Message("bar", "Hello hello, world world world."));
-        notifyObservers();
+        batch(() -> {
+            createUser("foo");
+            createUser("bar");
+            Message m1 = new Message("foo", "Hello, world!");
+            add(m1);
+            Message m2 = new Message("foo", "What is this message?");
+            add(m2);
+            add(new Message("bar", "Good bye, world!"));
+            add(new Message("bar", "Hello, you!"));
+            add(new Message("bar", "Hello hello, world world world."));
+        });
     }
 
     /**
-     * Retrieves all users in the registry.
+     * Retrieves all users in the registry, in creation order.
      *
-     * @return a collection of users
+     * @return an unmodifiable collection of users
      */
     public Collection<User> getUsers() {
-        return users;
+        return Collections.unmodifiableList(users);
     }
 
     /**
@@ -86,72 +339,379 @@ public class Y {
      * @return the user with the specified ID, or null if not found
      */
     public User getUserById(final String id) {
-        for (User user : users) {
-            if (user.getId().equals(id)) {
-                return user;
-            }
+        if (id == null) {
+            return null;
         }
-        return null;
+        return usersById.get(id);
     }
 
     /**
-     * Retrieves a message by its ID.
+     * Retrieves a message by its ID, from the hot messages or else from the archive.
      *
      * @param id the ID of the message to retrieve
      * @return the message with the specified ID, or null if not found
+     * @throws java.io.UncheckedIOException if the archived message cannot be read
      */
-    public Message getMessageById(final String id) {
-        return messages.stream().filter(m -> m.getId().equals(id)).findFirst().orElse(null);
+    public Message getMessageById(final long id) {
+        Message message = messagesById.get(id);
+        Archive cold = archive;
+        if (message == null && cold != null) {
+            return cold.load(id);
+        }
+        return message;
     }
 
     /**
-     * Posts a new message and notifies all users and observers.
+     * Posts a new message and notifies all observers.
+     * The message is appended to the shared log and ranked by its base score,
+     * computed once, here: users only keep data about it when their timeline
+     * is scored, if it has a personal score for them.
      *
      * @param message the message to post
+     * @throws java.io.UncheckedIOException if older messages cannot be archived, see
+     *                                      {@link #enforceRetention()}
      */
     public void add(final Message message) {
-        this.messages.add(message);
-        for (User user : users) {
-            user.addNewMessage(message.getId());
+        changeLock.readLock().lock();
+        try {
+            journal.messageAdded(message);
+            // Indexed and logged before being found by ID, so that a
+            // deletion undoes all of it
+            this.invertedIndex.add(message);
+            this.timeIndex.add(message);
+            long position = nextLogPosition.getAndIncrement();
+            message.setLogPosition(position);
+            this.messageLog.put(position, message);
+            this.messagesById.put(message.getId(), message);
+            rankBase(List.of(message));
+            publish(position, position + 1);
+        } finally {
+            changeLock.readLock().unlock();
+        }
+        notifyObservers(ChangeSet.messageAdded(message.getId()));
+        enforceRetention();
+    }
+
+    /**
+     * Computes the base score of messages being posted and ranks them for all
+     * users, before they are read by any user. Messages deleted in the
+     * meantime are not ranked.
+     *
+     * @param messages the posted messages, already found by ID
+     */
+    private void rankBase(final Collection<Message> messages) {
+        synchronized (baseRanking) {
+            scoringManager.scoreBase(messages);
+            for (Message message : messages) {
+                if (messagesById.containsKey(message.getId())) {
+                    baseRanking.update(message.getId(), false, message.getBaseScore());
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes a range of log positions readable by the users, once the
+     * messages at these positions are in the log. Ranges are published in
+     * allocation order: a writer waits for the writers that were allocated
+     * the positions before its own, which are only inserting into the log.
+     *
+     * @param from the first position of the range
+     * @param to   the position after the last one of the range
+     */
+    private void publish(final long from, final long to) {
+        for (int spins = 0; !publishedPosition.compareAndSet(from, to); spins++) {
+            // The writers waited for may have been descheduled: give way to them
+            if (spins < SPINS_BEFORE_YIELD) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
         }
-        notifyObservers();
     }
 
     /**
      * Delete the message by its Id and notifies all users and observers.
+     * Archived messages cannot be deleted, but a hot message being archived
+     * is also removed from the archive.
      *
      * @param msgId the Id of the message to delete
+     * @throws java.io.UncheckedIOException if the message cannot be removed from the
+     *                                      archive; it is still deleted from the model
      */
-    public void deleteMessage(final String msgId) {
-        this.messages.remove(getMessageById(msgId));
-        for (User user : users) {
-            user.getMessagesData().remove(msgId);
+    public void deleteMessage(final long msgId) {
+        changeLock.readLock().lock();
+        try {
+            Message message = this.messagesById.remove(msgId);
+            if (message == null) {
+                return;
+            }
+            journal.messageDeleted(msgId);
+            this.messageLog.remove(message.getLogPosition());
+            this.invertedIndex.remove(message);
+            this.timeIndex.remove(message);
+            synchronized (baseRanking) {
+                baseRanking.remove(msgId);
+            }
+            for (User user : users) {
+                user.removeMessage(msgId);
+            }
+        } finally {
+            changeLock.readLock().unlock();
         }
-        notifyObservers();
+        notifyObservers(ChangeSet.messageRemoved(msgId));
+        removeFromArchive(List.of(msgId));
     }
     
     /**
-     * Sets the words associated with each message in the provided map of messages data.
+     * Bookmarks a message for a user, or removes the bookmark.
+     * Any hot message can be bookmarked, whether or not the user has data about it.
+     * Observers are notified that the user's timeline changed if the bookmark
+     * was actually added or removed.
      *
-     * @param messagesData a map where each key is a {@link Message}
-     *                     and its corresponding value is {@link MessageData}.
-     *                     This method extracts the words from each message's content,
-     *                     processes them, and stores
-     *                     them in the associated {@link MessageData}.
-     */
-    public void setWordsForMessagesData(final Map<Message, MessageData> messagesData) {
-        Set<Message> keyMessages = messagesData.keySet();
-        keyMessages.forEach((Message m) -> {
-            MessageData d = messagesData.get(m);
-            String[] w = m.getContent().toLowerCase().split("[^\\p{Alpha}]+");
-            Set<String> words = new HashSet<>(Arrays.asList(w));
-            d.setWords(words);
+     * @param userId     the ID of the user
+     * @param msgId      the ID of the message
+     * @param bookmarked whether the message should be bookmarked
+     * @return true if the user and message exist, false otherwise
+     */
+    public boolean setBookmarked(final String userId, final long msgId,
+                                 final boolean bookmarked) {
+        User user = getUserById(userId);
+        if (user == null) {
+            return false;
+        }
+        changeLock.readLock().lock();
+        try {
+            synchronized (user) {
+                // Looked up under the user's lock, which a deletion takes once
+                // the message is no longer found
+                Message message = messagesById.get(msgId);
+                if (message == null) {
+                    return false;
+                }
+                if (user.isBookmarked(msgId) == bookmarked) {
+                    return true;
+                }
+                journal.bookmarkChanged(userId, msgId, bookmarked);
+                if (bookmarked) {
+                    user.bookmarkMessage(msgId, message.getBaseScore());
+                } else {
+                    user.removeBookmarkedMessage(msgId);
+                    unpinCount.incrementAndGet();
+                }
+            }
+        } finally {
+            changeLock.readLock().unlock();
+        }
+        notifyObservers(ChangeSet.timelineChanged(userId));
+        return true;
+    }
+
+    /**
+     * Captures the state of the model that has to be persisted: the users,
+     * their bookmarks and the messages with their cached static score.
+     * Changes are paused while the state is captured, so that the capture
+     * exactly matches the changes reported to the journal before it.
+     *
+     * @param atCapture called while changes are paused, e.g. to mark the
+     *                  position of the capture in the journal
+     * @return the captured state
+     */
+    public ModelSnapshot capture(final Runnable atCapture) {
+        changeLock.writeLock().lock();
+        try {
+            atCapture.run();
+            List<ModelSnapshot.UserState> userStates = new ArrayList<>(users.size());
+            for (User user : users) {
+                userStates.add(new ModelSnapshot.UserState(user.getId(),
+                        user.getBookmarkedMessage()));
+            }
+            return new ModelSnapshot(userStates, new ArrayList<>(messageLog.values()));
+        } finally {
+            changeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Restores a captured state into the model, adding its users, messages
+     * and bookmarks to the current ones.
+     *
+     * @param snapshot the captured state
+     */
+    public void restore(final ModelSnapshot snapshot) {
+        batch(() -> {
+            List<String> userIds = new ArrayList<>(snapshot.getUsers().size());
+            for (ModelSnapshot.UserState state : snapshot.getUsers()) {
+                userIds.add(state.getId());
+            }
+            ingest(userIds, snapshot.getMessages());
+            for (ModelSnapshot.UserState state : snapshot.getUsers()) {
+                for (long msgId : state.getBookmarkedIds()) {
+                    setBookmarked(state.getId(), msgId, true);
+                }
+            }
         });
     }
 
+    /**
+     * Sets the hot window of the messages, and the archive receiving the
+     * messages moved out of it. The messages already outside of the window
+     * are moved to the archive.
+     * It should be set once the model is rebuilt from its journal, so that
+     * replayed messages are not archived before their bookmarks are replayed.
+     *
+     * @param policy the hot window
+     * @param cold   the archive, or null to keep every message hot
+     * @throws java.io.UncheckedIOException if older messages cannot be archived, see
+     *                                      {@link #enforceRetention()}
+     */
+    public void setRetention(final RetentionPolicy policy, final Archive cold) {
+        this.retention = policy;
+        this.archive = cold;
+        enforceRetention();
+    }
+
+    /**
+     * Moves the messages outside of the hot window to the archive, once the
+     * window overflowed enough. The messages leave the users' data, the
+     * indexes and the scoring input, so that scoring only depends on the size
+     * of the window. Bookmarked messages stay hot, outside of the window: the
+     * oldest ones are skipped by the next checks until a bookmark is removed.
+     * The messages are archived first, then removed while changes are paused;
+     * those deleted in the meantime are removed from the archive again.
+     *
+     * @throws java.io.UncheckedIOException if the messages cannot be archived, in
+     *                                      which case they stay hot, or if the
+     *                                      deleted ones cannot be removed from
+     *                                      the archive again
+     */
+    public void enforceRetention() {
+        Archive cold = archive;
+        RetentionPolicy policy = retention;
+        long start = unpinCount.get() == checkedUnpinCount ? retentionStart : 0;
+        Map.Entry<Long, Message> oldest = messageLog.ceilingEntry(start);
+        long now = System.currentTimeMillis();
+        if (cold == null || oldest == null || !policy.overflows(
+                messagesById.size() - pinnedCount, oldest.getValue().getDate(), now)) {
+            return;
+        }
+        List<Message> evicted = new ArrayList<>();
+        List<Long> deleted = new ArrayList<>();
+        synchronized (retentionLock) {
+            long unpins = unpinCount.get();
+            start = unpins == checkedUnpinCount ? retentionStart : 0;
+            Set<Long> pinned = bookmarkedIds();
+            pinned.retainAll(messagesById.keySet());
+            long count = messagesById.size() - pinned.size();
+            long stop = start;
+            for (Message m : messageLog.tailMap(start).values()) {
+                if (!pinned.contains(m.getId())) {
+                    if (!policy.isCold(count, m.getDate(), now)) {
+                        break;
+                    }
+                    evicted.add(m);
+                    count--;
+                }
+                stop = m.getLogPosition() + 1;
+            }
+            if (evicted.isEmpty()) {
+                retentionStart = stop;
+                pinnedCount = pinned.size();
+                checkedUnpinCount = unpins;
+                return;
+            }
+            cold.store(evicted);
+            changeLock.writeLock().lock();
+            try {
+                // Messages may have been bookmarked or deleted in the meantime
+                Set<Long> stillPinned = bookmarkedIds();
+                evicted.removeIf(m -> {
+                    if (stillPinned.contains(m.getId())) {
+                        return true;
+                    }
+                    if (messagesById.remove(m.getId()) == null) {
+                        deleted.add(m.getId());
+                        return true;
+                    }
+                    return false;
+                });
+                for (Message m : evicted) {
+                    messageLog.remove(m.getLogPosition());
+                    invertedIndex.remove(m);
+                    timeIndex.remove(m);
+                }
+                synchronized (baseRanking) {
+                    for (Message m : evicted) {
+                        baseRanking.remove(m.getId());
+                    }
+                }
+                for (User user : users) {
+                    synchronized (user) {
+                        for (Message m : evicted) {
+                            user.removeMessage(m.getId());
+                        }
+                    }
+                }
+            } finally {
+                changeLock.writeLock().unlock();
+            }
+            // Messages bookmarked in the meantime are before the start, as pinned
+            retentionStart = stop;
+            pinnedCount = pinned.size();
+            checkedUnpinCount = unpins;
+        }
+        ChangeSet.Builder changes = new ChangeSet.Builder();
+        for (Message m : evicted) {
+            changes.add(ChangeSet.messageRemoved(m.getId()));
+        }
+        notifyObservers(changes.build());
+        // Deleted before they were archived: they must not come back
+        removeFromArchive(deleted);
+    }
+
+    /**
+     * Removes deleted messages from the archive, if any, in case they were
+     * archived while still hot.
+     *
+     * @param messageIds the IDs of the deleted messages
+     * @throws java.io.UncheckedIOException if a removal cannot be made durable
+     */
+    private void removeFromArchive(final Collection<Long> messageIds) {
+        Archive cold = archive;
+        if (cold == null) {
+            return;
+        }
+        for (long id : messageIds) {
+            cold.remove(id);
+        }
+    }
+
+    /**
+     * Retrieves the IDs of the messages bookmarked by any user.
+     *
+     * @return the IDs of the bookmarked messages
+     */
+    private Set<Long> bookmarkedIds() {
+        Set<Long> ids = new HashSet<>();
+        for (User user : users) {
+            ids.addAll(user.getBookmarkedMessage());
+        }
+        return ids;
+    }
+
+    /**
+     * Sets the journal receiving the changes made to the model from now on.
+     *
+     * @param journal the journal, or null to stop reporting changes
+     */
+    public void setJournal(final Journal journal) {
+        this.journal = journal == null ? Journal.NONE : journal;
+    }
+
     /**
      * Applies the scoring rules to the provided map of messages data.
-     * This method first sets the words for each message data and initializes their scores to zero.
+     * This method first initializes the scores of the messages data to zero,
+     * and computes the base score of the messages that were never posted.
      * Then, it applies all the scoring rules
      * defined in the scoring manager to calculate the final scores.
      *
@@ -161,11 +721,345 @@ public class Y {
      *                     and update the scores based on the scoring rules.
      */
     public void applyScoringRules(final Map<Message, MessageData> messagesData) {
-        setWordsForMessagesData(messagesData);
         messagesData.values().forEach(data -> data.setScore(0));
+        List<Message> unposted = new ArrayList<>();
+        for (Message message : messagesData.keySet()) {
+            if (message.getLogPosition() < 0) {
+                unposted.add(message);
+            }
+        }
+        scoringManager.scoreBase(unposted);
         scoringManager.applyScoringRules(messagesData);
     }
 
+    /**
+     * Sets the executor on which {@link #rescoreAsync} scores the users.
+     *
+     * @param executor the executor, e.g. a thread pool sized to the number of cores
+     */
+    public void setScoringExecutor(final Executor executor) {
+        this.scoringExecutor = executor;
+    }
+
+    /**
+     * Incrementally updates the scores of several users in parallel.
+     * Each user is scored by a separate task of the scoring executor. The
+     * clock of the time-dependent rules ticks once, for all the users.
+     * Once they are scored, observers are notified of the users whose
+     * displayed timeline changed, in a single change set.
+     *
+     * @param toRescore the users whose messages are scored
+     * @return a future completed once all the users are scored
+     */
+    public CompletableFuture<Void> rescoreAsync(final Collection<User> toRescore) {
+        return rescoreAsync(toRescore, RecencyBuckets.tick());
+    }
+
+    /**
+     * Moves the clock of the time-dependent rules forward, so that messages
+     * change recency bucket even when nothing is posted; meant to be called
+     * periodically. Only the users for whom messages crossed a bucket
+     * boundary since they were last scored are scored again, and only the
+     * messages that crossed it are rescored. Observers are then notified of
+     * the users whose displayed timeline changed.
+     *
+     * @return a future completed once the users are scored
+     */
+    public CompletableFuture<Void> tick() {
+        long tickTime = RecencyBuckets.tick();
+        List<User> aged = new ArrayList<>();
+        // Users scored at the same tick share the lookup
+        Map<Long, Boolean> crossedSince = new HashMap<>();
+        for (User user : users) {
+            long lastScoredAt;
+            synchronized (user) {
+                lastScoredAt = user.getLastScoredAt();
+            }
+            // Users never scored are scored in full when first displayed
+            if (lastScoredAt > 0 && crossedSince.computeIfAbsent(lastScoredAt,
+                    from -> !timeIndex.getIdsCrossingBuckets(from, tickTime).isEmpty())) {
+                aged.add(user);
+            }
+        }
+        return rescoreAsync(aged, tickTime);
+    }
 
+    /**
+     * Incrementally updates the scores of several users in parallel, at a
+     * tick of the clock of the time-dependent rules.
+     *
+     * @param toRescore the users whose messages are scored
+     * @param tickTime  the time of the tick
+     * @return a future completed once all the users are scored
+     */
+    private CompletableFuture<Void> rescoreAsync(final Collection<User> toRescore,
+                                                 final long tickTime) {
+        Set<String> changed = ConcurrentHashMap.newKeySet();
+        CompletableFuture<?>[] tasks = new CompletableFuture<?>[toRescore.size()];
+        int i = 0;
+        for (User user : toRescore) {
+            tasks[i++] = CompletableFuture.runAsync(() -> {
+                if (rescore(user, tickTime)) {
+                    changed.add(user.getId());
+                }
+            }, scoringExecutor);
+        }
+        // Users scored before a failure are still reported
+        return CompletableFuture.allOf(tasks).whenComplete((done, error) -> {
+            if (!changed.isEmpty()) {
+                notifyObservers(ChangeSet.scoresChanged(changed));
+            }
+        });
+    }
 
+    /**
+     * Incrementally updates the scores of a user's messages, after a tick of
+     * the clock of the time-dependent rules. Observers are notified if the
+     * displayed timeline of the user changed.
+     *
+     * @param user the user whose messages are scored
+     */
+    public void rescore(final User user) {
+        if (rescore(user, RecencyBuckets.tick())) {
+            notifyObservers(ChangeSet.scoresChanged(List.of(user.getId())));
+        }
+    }
+
+    /**
+     * Incrementally updates the scores of a user's messages.
+     * The base scores are first brought up to date with the tick. Then only
+     * the messages posted since the user last read the log are fully scored;
+     * the other messages are only rescored by the rules depending on the
+     * events that occurred in the meantime: bookmark changes, or messages
+     * moving to an older recency bucket as the clock ticked.
+     * Messages without personal state are scored like the others, but their
+     * data is only kept if it turns out to be personal.
+     *
+     * Scoring a user locks it, so different users can be scored concurrently.
+     *
+     * @param user     the user whose messages are scored
+     * @param tickTime the time of the last tick of {@link RecencyBuckets}
+     * @return true if the displayed timeline of the user changed since the
+     *         last scoring: messages above the visibility threshold were
+     *         ranked, re-ranked or removed in the user's ranking or in the
+     *         ranking shared by all users
+     */
+    private boolean rescore(final User user, final long tickTime) {
+        advanceBaseScores(tickTime);
+        synchronized (user) {
+            long lastScoredAt = user.getLastScoredAt();
+            long lastRead = user.getLogPosition();
+            long published = publishedPosition.get();
+            Map<Long, MessageData> userData = user.getLiveMessagesData();
+            // Data of the messages without personal state, shared by the targets
+            Map<Long, MessageData> scratch = new HashMap<>();
+            Map<Message, MessageData> fresh = new LinkedHashMap<>();
+            for (Message m : messageLog.subMap(lastRead, false, published, false).values()) {
+                fresh.put(m, dataOf(m.getId(), userData, scratch));
+            }
+            Set<ScoringEvent> events = EnumSet.noneOf(ScoringEvent.class);
+            events.addAll(user.getPendingEvents());
+            if (!fresh.isEmpty()) {
+                events.add(ScoringEvent.NEW_MESSAGE);
+            }
+            if (tickTime > lastScoredAt) {
+                events.add(ScoringEvent.CLOCK_TICK);
+            }
+
+            Map<Message, MessageData> bookmarked =
+                    resolveMessages(user.getBookmarkedMessage(), userData);
+            BitSet bookmarkTerms = user.getScoredBookmarkTerms();
+            BookmarkChange change = null;
+            Map<Message, MessageData> affected = Collections.emptyMap();
+            if (events.contains(ScoringEvent.BOOKMARK_CHANGE)) {
+                bookmarkTerms = new BitSet();
+                for (Message m : bookmarked.keySet()) {
+                    for (int term : m.getTerms()) {
+                        bookmarkTerms.set(term);
+                    }
+                }
+                change = new BookmarkChange(user.getScoredBookmarkTerms(), bookmarkTerms);
+                affected = findAffectedMessages(change, lastRead, userData, scratch);
+            }
+            Map<Message, MessageData> aged = Collections.emptyMap();
+            if (events.contains(ScoringEvent.CLOCK_TICK) && lastScoredAt > 0) {
+                aged = findAgedMessages(lastScoredAt, tickTime, lastRead, userData, scratch);
+            }
+            Map<Message, MessageData> timeline = fresh;
+            if (scoringManager.isTriggeredBy(events)) {
+                timeline = new LinkedHashMap<>();
+                for (Message m : messageLog.headMap(published, false).values()) {
+                    timeline.put(m, dataOf(m.getId(), userData, scratch));
+                }
+            }
+            scoringManager.rescore(timeline, fresh, bookmarked,
+                    new TimelineChanges(events, change, affected, aged));
+            // The timeline is either the fresh messages or the whole timeline
+            storeScores(user, timeline);
+            storeScores(user, affected);
+            storeScores(user, aged);
+            user.markScored(Math.max(tickTime, lastScoredAt), bookmarkTerms,
+                    Math.max(lastRead, published - 1));
+            long version;
+            synchronized (baseRanking) {
+                version = user.getRanking().getVersion() + baseRanking.getVersion();
+            }
+            return user.markRankingVersion(version);
+        }
+    }
+
+    /**
+     * Updates the base score of the messages that moved to an older recency
+     * bucket since the base scores were last updated, and re-ranks them.
+     *
+     * @param tickTime the time of the last tick of {@link RecencyBuckets}
+     */
+    private void advanceBaseScores(final long tickTime) {
+        synchronized (baseRanking) {
+            if (tickTime <= baseScoredAt) {
+                return;
+            }
+            List<Message> aged = new ArrayList<>();
+            for (Long id : timeIndex.getIdsCrossingBuckets(baseScoredAt, tickTime)) {
+                Message message = messagesById.get(id);
+                if (message != null) {
+                    aged.add(message);
+                }
+            }
+            scoringManager.scoreBase(aged);
+            for (Message message : aged) {
+                // Messages being posted are ranked once they are scored
+                if (baseRanking.contains(message.getId())) {
+                    baseRanking.update(message.getId(), false, message.getBaseScore());
+                }
+            }
+            baseScoredAt = tickTime;
+        }
+    }
+
+    /**
+     * Retrieves the best ranked messages of a user whose score is above a
+     * threshold: the messages of the user's data, merged with the other hot
+     * messages ranked by base score. Nothing is sorted.
+     *
+     * @param user      the user
+     * @param threshold the score messages must be strictly greater than
+     * @param limit     the maximum number of messages to retrieve
+     * @return the best ranked messages, best first
+     */
+    public List<Ranking.Entry> getRankedMessages(final User user, final int threshold,
+                                                 final int limit) {
+        synchronized (user) {
+            synchronized (baseRanking) {
+                return Ranking.merge(user.getRanking(), baseRanking, threshold, limit);
+            }
+        }
+    }
+
+    /**
+     * Looks up in the time index the already scored messages that moved to an
+     * older recency bucket between two ticks. Messages without personal state
+     * are only looked up if a personalized rule depends on time: otherwise,
+     * their whole score is their base score.
+     *
+     * @param from     the time of the previous scoring of the user
+     * @param to       the time of the current tick
+     * @param lastRead the log position of the last message scored for the user
+     * @param userData the data of the user, indexed by message ID
+     * @param scratch  the data of the messages without personal state
+     * @return a map of the aged messages to the user's data
+     */
+    private Map<Message, MessageData> findAgedMessages(final long from, final long to,
+                                                       final long lastRead,
+                                                       final Map<Long, MessageData> userData,
+                                                       final Map<Long, MessageData> scratch) {
+        boolean personalized = scoringManager.isPersonalizedBy(ScoringEvent.CLOCK_TICK);
+        Map<Message, MessageData> aged = new LinkedHashMap<>();
+        for (Long id : timeIndex.getIdsCrossingBuckets(from, to)) {
+            Message message = messagesById.get(id);
+            if (message != null && message.getLogPosition() <= lastRead
+                    && (personalized || userData.containsKey(id))) {
+                aged.put(message, dataOf(id, userData, scratch));
+            }
+        }
+        return aged;
+    }
+
+    /**
+     * Looks up in the inverted index the already scored messages containing
+     * at least one of the words of a bookmark change.
+     *
+     * @param change   the change of the bookmarked words
+     * @param lastRead the log position of the last message scored for the user
+     * @param userData the data of the user, indexed by message ID
+     * @param scratch  the data of the messages without personal state
+     * @return a map of the affected messages to the user's data
+     */
+    private Map<Message, MessageData> findAffectedMessages(final BookmarkChange change,
+                                                           final long lastRead,
+                                                           final Map<Long, MessageData> userData,
+                                                           final Map<Long, MessageData> scratch) {
+        Map<Message, MessageData> affected = new LinkedHashMap<>();
+        BitSet changed = change.getChangedTerms();
+        for (int term = changed.nextSetBit(0); term >= 0; term = changed.nextSetBit(term + 1)) {
+            for (Long id : invertedIndex.getPostings(term)) {
+                Message message = messagesById.get(id);
+                if (message != null && message.getLogPosition() <= lastRead) {
+                    affected.putIfAbsent(message, dataOf(id, userData, scratch));
+                }
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Retrieves the data of a user about a message, or else the data of the
+     * message without personal state, created once per scoring.
+     *
+     * @param id       the ID of the message
+     * @param userData the data of the user, indexed by message ID
+     * @param scratch  the data of the messages without personal state
+     * @return the data of the message
+     */
+    private MessageData dataOf(final long id, final Map<Long, MessageData> userData,
+                               final Map<Long, MessageData> scratch) {
+        MessageData data = userData.get(id);
+        if (data == null) {
+            data = scratch.computeIfAbsent(id, k -> new MessageData());
+        }
+        return data;
+    }
+
+    /**
+     * Stores the scored data of a user, only keeping the personal state.
+     *
+     * @param user   the scored user
+     * @param scored the scored messages and their data
+     */
+    private void storeScores(final User user, final Map<Message, MessageData> scored) {
+        for (Map.Entry<Message, MessageData> entry : scored.entrySet()) {
+            user.updateMessage(entry.getKey().getId(), entry.getValue());
+        }
+    }
+
+    /**
+     * Associates the given message IDs with their messages and data.
+     * IDs of messages that no longer exist are ignored.
+     *
+     * @param ids      the IDs of the messages
+     * @param userData the data of a user, indexed by message ID
+     * @return a map of the messages to their data, in the order of the IDs
+     */
+    private Map<Message, MessageData> resolveMessages(final Collection<Long> ids,
+                                                      final Map<Long, MessageData> userData) {
+        Map<Message, MessageData> resolved = new LinkedHashMap<>();
+        for (Long id : ids) {
+            Message message = messagesById.get(id);
+            MessageData data = userData.get(id);
+            if (message != null && data != null) {
+                resolved.put(message, data);
+            }
+        }
+        return resolved;
+    }
 }
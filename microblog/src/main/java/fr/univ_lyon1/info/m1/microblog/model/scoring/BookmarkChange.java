@@ -0,0 +1,53 @@
+package fr.univ_lyon1.info.m1.microblog.model.scoring;
+
+import java.util.BitSet;
+
+/**
+ * Change of the words of the bookmarked messages of a user since the last scoring.
+ */
+public class BookmarkChange {
+    private final BitSet addedTerms;
+    private final BitSet removedTerms;
+
+    /**
+     * Computes the change between two sets of bookmarked terms.
+     *
+     * @param previousTerms the bookmarked terms at the last scoring.
+     * @param currentTerms  the bookmarked terms now.
+     */
+    public BookmarkChange(final BitSet previousTerms, final BitSet currentTerms) {
+        this.addedTerms = (BitSet) currentTerms.clone();
+        this.addedTerms.andNot(previousTerms);
+        this.removedTerms = (BitSet) previousTerms.clone();
+        this.removedTerms.andNot(currentTerms);
+    }
+
+    /**
+     * Retrieves the terms that were not bookmarked at the last scoring.
+     *
+     * @return the added term IDs.
+     */
+    public BitSet getAddedTerms() {
+        return addedTerms;
+    }
+
+    /**
+     * Retrieves the terms that are no longer bookmarked.
+     *
+     * @return the removed term IDs.
+     */
+    public BitSet getRemovedTerms() {
+        return removedTerms;
+    }
+
+    /**
+     * Retrieves all the terms whose bookmark status changed.
+     *
+     * @return the added and removed term IDs.
+     */
+    public BitSet getChangedTerms() {
+        BitSet changed = (BitSet) addedTerms.clone();
+        changed.or(removedTerms);
+        return changed;
+    }
+}
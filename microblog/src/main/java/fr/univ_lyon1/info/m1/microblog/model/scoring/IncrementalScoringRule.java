@@ -0,0 +1,25 @@
+package fr.univ_lyon1.info.m1.microblog.model.scoring;
+
+import fr.univ_lyon1.info.m1.microblog.model.Message;
+
+import java.util.List;
+
+/**
+ * Scoring rule able to update its scores after a bookmark change
+ * instead of being recomputed on the whole timeline.
+ */
+public interface IncrementalScoringRule extends ScoringRule {
+
+    /**
+     * Computes how a bookmark change modifies the contribution of this rule
+     * to the scores of the affected messages.
+     *
+     * @param messages the already scored messages containing at least one
+     *                 of the changed terms.
+     * @param change   the change of the bookmarked terms.
+     * @param deltas   the accumulator of this rule: the change of the
+     *                 contribution to the score of the i-th message has to be
+     *                 added to deltas[i].
+     */
+    void updateScores(List<Message> messages, BookmarkChange change, int[] deltas);
+}
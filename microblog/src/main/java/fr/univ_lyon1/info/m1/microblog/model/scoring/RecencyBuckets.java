@@ -0,0 +1,76 @@
+package fr.univ_lyon1.info.m1.microblog.model.scoring;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clock of the time-dependent scoring rules.
+ * Messages are sorted by age into ordered buckets (less than 24 hours, less
+ * than 7 days, older). The clock only moves forward on ticks, so the bucket of
+ * a message is a lookup against the time of the last tick rather than a clock
+ * read, and it only changes when the message crosses a bucket boundary.
+ */
+public final class RecencyBuckets {
+    /**
+     * Upper bounds of the age of the messages of each bucket but the last one,
+     * in milliseconds.
+     */
+    private static final long[] BOUNDARIES = {
+        TimeUnit.HOURS.toMillis(24),
+        TimeUnit.DAYS.toMillis(7),
+    };
+
+    /**
+     * Time of the last tick, in milliseconds since the epoch. Concurrent ticks
+     * only ever move it forward.
+     */
+    private static final AtomicLong TICK_TIME = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Utility class, not meant to be instantiated.
+     */
+    private RecencyBuckets() { }
+
+    /**
+     * Moves the clock forward to the current time.
+     *
+     * @return the time of this tick, in milliseconds since the epoch.
+     */
+    public static long tick() {
+        return TICK_TIME.accumulateAndGet(System.currentTimeMillis(), Math::max);
+    }
+
+    /**
+     * Retrieves the time of the last tick.
+     *
+     * @return the time of the last tick, in milliseconds since the epoch.
+     */
+    public static long getTickTime() {
+        return TICK_TIME.get();
+    }
+
+    /**
+     * Returns the bucket of a message at the time of the last tick.
+     *
+     * @param date the date of the message, in milliseconds since the epoch.
+     * @return the index of the bucket, 0 for the most recent messages.
+     */
+    public static int bucketOf(final long date) {
+        long age = TICK_TIME.get() - date;
+        for (int i = 0; i < BOUNDARIES.length; i++) {
+            if (age < BOUNDARIES[i]) {
+                return i;
+            }
+        }
+        return BOUNDARIES.length;
+    }
+
+    /**
+     * Returns the bucket boundaries, as ages in milliseconds.
+     *
+     * @return a copy of the boundaries, in increasing order.
+     */
+    public static long[] getBoundaries() {
+        return BOUNDARIES.clone();
+    }
+}
@@ -0,0 +1,21 @@
+package fr.univ_lyon1.info.m1.microblog.model.scoring;
+
+/**
+ * Events of the model that may invalidate scores computed earlier.
+ * Scoring rules declare the events they depend on, so that the scoring
+ * manager only recomputes the rules affected by what changed.
+ */
+public enum ScoringEvent {
+    /**
+     * A message was added to the timeline.
+     */
+    NEW_MESSAGE,
+    /**
+     * A message of the timeline was bookmarked or unbookmarked.
+     */
+    BOOKMARK_CHANGE,
+    /**
+     * Time passed since the last scoring.
+     */
+    CLOCK_TICK
+}
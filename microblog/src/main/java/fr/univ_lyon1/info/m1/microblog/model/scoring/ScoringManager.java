@@ -4,9 +4,16 @@ import fr.univ_lyon1.info.m1.microblog.model.Message;
 import fr.univ_lyon1.info.m1.microblog.model.MessageData;
 import org.reflections.Reflections;
 
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.HashSet;
+import java.util.stream.IntStream;
 
 /**
  * Scoring rules manager class.
@@ -14,9 +21,36 @@ import java.util.HashSet;
  * This class is responsible for loading and applying scoring rules
  * to a set of messages and their associated data. It uses Reflections to
  * dynamically discover the scoring rule classes present in a specified package.
+ *
+ * Scores can be computed incrementally: the contribution of each rule is kept
+ * in the {@link MessageData}, and only the rules depending on the events that
+ * occurred since the last scoring are recomputed for already scored messages.
+ * The contribution of user-independent rules is computed once per message and
+ * cached in the {@link Message} as its base score, shared by all users:
+ * per-user scoring only runs personalized rules, on top of it.
  */
 public class ScoringManager {
-    private final Set<ScoringRule> scoringRules = new HashSet<>();
+
+    /**
+     * Minimal number of messages to score for the rules to be run in parallel.
+     */
+    private static final int PARALLEL_THRESHOLD = 1024;
+
+    /**
+     * Personalized scoring rules, sorted by class name so that the index of
+     * each rule is stable.
+     */
+    private final List<ScoringRule> scoringRules = new ArrayList<>();
+    /**
+     * User-independent scoring rules, computed once per message, sorted by
+     * class name.
+     */
+    private final List<ScoringRule> staticRules = new ArrayList<>();
+    /**
+     * User-independent time-dependent scoring rules, computed once per
+     * message and clock tick, sorted by class name.
+     */
+    private final List<ScoringRule> sharedRules = new ArrayList<>();
 
     /**
      * Constructor for ScoringManager.
@@ -32,19 +66,29 @@ public class ScoringManager {
      * Dynamically loads scoring rules from the specified package.
      *
      * This method uses the Reflections library to scan the package
-     * containing subclasses of ScoringRule. The found classes are instantiated
+     * containing subclasses of ScoringRule. The found concrete classes are instantiated
      * and added to the collection of scoring rules.
      */
     private void loadScoringRules() {
         Reflections reflections = new Reflections(
                 "fr.univ_lyon1.info.m1.microblog.model.scoring.scoringRules");
-        Set<Class<? extends ScoringRule>> ruleClasses =
-                reflections.getSubTypesOf(ScoringRule.class);
+        List<Class<? extends ScoringRule>> ruleClasses =
+                new ArrayList<>(reflections.getSubTypesOf(ScoringRule.class));
+        ruleClasses.sort(Comparator.comparing(Class::getName));
 
         for (Class<? extends ScoringRule> ruleClass : ruleClasses) {
+            if (ruleClass.isInterface() || Modifier.isAbstract(ruleClass.getModifiers())) {
+                continue;
+            }
             try {
                 ScoringRule rule = ruleClass.getDeclaredConstructor().newInstance();
-                scoringRules.add(rule);
+                if (rule.isUserIndependent() && rule.getTriggers().isEmpty()) {
+                    staticRules.add(rule);
+                } else if (rule.isUserIndependent() && rule instanceof TimeBucketedRule) {
+                    sharedRules.add(rule);
+                } else {
+                    scoringRules.add(rule);
+                }
             } catch (Exception e) {
                 System.out.println("Error instantiating class " + ruleClass.getName());
             }
@@ -53,14 +97,323 @@ public class ScoringManager {
 
     /**
      * Applies all scoring rules to the provided message data.
+     * The base score of the messages must have been computed by {@link #scoreBase}.
      *
      * @param messagesData A mapping between messages and their associated data.
      *                     Each scoring rule is applied to modify the scores of the
      *                     messages based on the defined criteria.
      */
     public void applyScoringRules(final Map<Message, MessageData> messagesData) {
+        Map<Message, MessageData> bookmarked = new LinkedHashMap<>();
+        messagesData.forEach((m, d) -> {
+            if (d.isBookmarked()) {
+                bookmarked.put(m, d);
+            }
+        });
+        rescore(messagesData, messagesData, bookmarked, TimelineChanges.all());
+    }
+
+    /**
+     * Computes and caches the contribution of the user-independent rules for
+     * the given messages, unless it is already cached.
+     *
+     * @param messages the messages to score.
+     */
+    public void cacheStaticScores(final Collection<Message> messages) {
+        List<Message> toScore = new ArrayList<>();
+        for (Message message : messages) {
+            if (!message.hasStaticScore()) {
+                toScore.add(message);
+            }
+        }
+        if (toScore.isEmpty()) {
+            return;
+        }
+        int[] total = sumUserIndependentRules(staticRules, toScore);
+        for (int i = 0; i < total.length; i++) {
+            toScore.get(i).setStaticScore(total[i]);
+        }
+    }
+
+    /**
+     * Computes the base score of the given messages, shared by all users: their
+     * static score, cached once, plus the contribution of the user-independent
+     * time-dependent rules at the last clock tick.
+     *
+     * @param messages the messages to score.
+     */
+    public void scoreBase(final Collection<Message> messages) {
+        cacheStaticScores(messages);
+        List<Message> toScore = new ArrayList<>(messages);
+        int[] total = sumUserIndependentRules(sharedRules, toScore);
+        for (int i = 0; i < total.length; i++) {
+            Message message = toScore.get(i);
+            message.setBaseScore(message.getStaticScore() + total[i]);
+        }
+    }
+
+    /**
+     * Computes the total contribution of user-independent rules to the scores
+     * of the given messages. Like in {@link #rescore}, each rule writes to its
+     * own accumulator, so the rules run in parallel when there are enough
+     * messages to score; the accumulators are then summed in rule order.
+     *
+     * @param rules    the user-independent rules.
+     * @param messages the messages to score.
+     * @return the total contribution of the rules to the score of each message.
+     */
+    private static int[] sumUserIndependentRules(final List<ScoringRule> rules,
+                                                 final List<Message> messages) {
+        int[][] scores = new int[rules.size()][];
+        IntStream ruleIndexes = IntStream.range(0, rules.size());
+        if (messages.size() >= PARALLEL_THRESHOLD) {
+            ruleIndexes = ruleIndexes.parallel();
+        }
+        ruleIndexes.forEach(i -> {
+            scores[i] = new int[messages.size()];
+            rules.get(i).computeScores(messages, Collections.emptyList(), scores[i]);
+        });
+        int[] total = new int[messages.size()];
+        for (int[] ruleScores : scores) {
+            for (int j = 0; j < total.length; j++) {
+                total[j] += ruleScores[j];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Tells whether a personalized rule depends on the given event, so that
+     * messages with no personal contribution may get one after it.
+     *
+     * @param event the event.
+     * @return true if at least one personalized rule is triggered by the event.
+     */
+    public boolean isPersonalizedBy(final ScoringEvent event) {
         for (ScoringRule rule : scoringRules) {
-            rule.computeScores(messagesData);
+            if (rule.getTriggers().contains(event)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells whether at least one rule has to be recomputed on the whole timeline
+     * after the given events.
+     *
+     * @param events the events that occurred since the last scoring.
+     * @return true if the whole timeline has to be provided to {@link #rescore}.
+     */
+    public boolean isTriggeredBy(final Set<ScoringEvent> events) {
+        for (ScoringRule rule : scoringRules) {
+            if (isTriggered(rule, events) && !isUpdatable(rule, events)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Incrementally updates the scores of a timeline.
+     * The base score of the messages must have been computed by {@link #scoreBase}.
+     * Every personalized rule is computed on the fresh messages. The rules
+     * triggered by the events that occurred are either updated on the affected
+     * messages only, when they know how to handle all these events (bookmark
+     * changes for {@link IncrementalScoringRule}, clock ticks for
+     * {@link TimeBucketedRule}), or recomputed on the whole timeline.
+     * The contributions of the other rules are taken from the previous scoring.
+     * Each rule writes to its own accumulators, so the rules run in parallel
+     * when there are enough messages to score; the accumulators are then
+     * summed in the order of the rules.
+     *
+     * @param timeline   the whole timeline, only read if {@link #isTriggeredBy}
+     *                   returns true for the events of the changes.
+     * @param fresh      the messages that were never scored.
+     * @param bookmarked the bookmarked messages of the timeline.
+     * @param changes    what changed since the last scoring.
+     */
+    public void rescore(final Map<Message, MessageData> timeline,
+                        final Map<Message, MessageData> fresh,
+                        final Map<Message, MessageData> bookmarked,
+                        final TimelineChanges changes) {
+        int nbRules = scoringRules.size();
+        Set<ScoringEvent> events = changes.getEvents();
+        BookmarkChange change = changes.getBookmarkChange();
+        Targets freshTargets = new Targets(fresh);
+        Targets timelineTargets = new Targets(timeline);
+        Targets affectedTargets = new Targets(changes.getBookmarkAffected());
+        Targets agedTargets = new Targets(changes.getAged());
+        Collection<Message> bookmarkedMessages = bookmarked.keySet();
+
+        // Choose, for each rule, the messages it is computed on
+        Targets[] computed = new Targets[nbRules];
+        boolean[] updated = new boolean[nbRules];
+        boolean[] aged = new boolean[nbRules];
+        boolean timelineTouched = false;
+        for (int i = 0; i < nbRules; i++) {
+            ScoringRule rule = scoringRules.get(i);
+            computed[i] = freshTargets;
+            if (!isTriggered(rule, events)) {
+                continue;
+            }
+            if (isUpdatable(rule, events) && (change != null
+                    || !events.contains(ScoringEvent.BOOKMARK_CHANGE))) {
+                updated[i] = change != null && rule instanceof IncrementalScoringRule;
+                aged[i] = events.contains(ScoringEvent.CLOCK_TICK)
+                        && rule instanceof TimeBucketedRule;
+            } else {
+                computed[i] = timelineTargets;
+                timelineTouched = true;
+            }
+        }
+
+        // Run the rules, each one filling its own accumulators
+        int[][] scores = new int[nbRules][];
+        int[][] deltas = new int[nbRules][];
+        int[][] agedScores = new int[nbRules][];
+        IntStream ruleIndexes = IntStream.range(0, nbRules);
+        if (timelineTargets.size() + affectedTargets.size() >= PARALLEL_THRESHOLD) {
+            ruleIndexes = ruleIndexes.parallel();
+        }
+        ruleIndexes.forEach(i -> {
+            ScoringRule rule = scoringRules.get(i);
+            scores[i] = new int[computed[i].size()];
+            rule.computeScores(computed[i].messages, bookmarkedMessages, scores[i]);
+            if (updated[i]) {
+                deltas[i] = new int[affectedTargets.size()];
+                ((IncrementalScoringRule) rule).updateScores(affectedTargets.messages, change,
+                        deltas[i]);
+            }
+            if (aged[i]) {
+                agedScores[i] = new int[agedTargets.size()];
+                rule.computeScores(agedTargets.messages, bookmarkedMessages, agedScores[i]);
+            }
+        });
+
+        // Merge the accumulators into the contributions of each rule
+        for (MessageData data : freshTargets.data) {
+            data.setRuleScores(new int[nbRules]);
+        }
+        for (int i = 0; i < nbRules; i++) {
+            for (int j = 0; j < computed[i].size(); j++) {
+                ruleScoresOf(computed[i].data[j], nbRules)[i] = scores[i][j];
+            }
+            if (updated[i]) {
+                for (int j = 0; j < affectedTargets.size(); j++) {
+                    ruleScoresOf(affectedTargets.data[j], nbRules)[i] += deltas[i][j];
+                }
+            }
+            // Recomputed scores of aged messages already account for any other change
+            if (aged[i]) {
+                for (int j = 0; j < agedTargets.size(); j++) {
+                    ruleScoresOf(agedTargets.data[j], nbRules)[i] = agedScores[i][j];
+                }
+            }
+        }
+        if (timelineTouched) {
+            sumRuleScores(timelineTargets);
+        } else {
+            sumRuleScores(freshTargets);
+            sumRuleScores(affectedTargets);
+            sumRuleScores(agedTargets);
+        }
+    }
+
+    /**
+     * Tells whether a rule depends on at least one of the given events.
+     *
+     * @param rule   the scoring rule.
+     * @param events the events that occurred since the last scoring.
+     * @return true if the scores of the rule may have changed.
+     */
+    private boolean isTriggered(final ScoringRule rule, final Set<ScoringEvent> events) {
+        return !Collections.disjoint(rule.getTriggers(), events);
+    }
+
+    /**
+     * Tells whether a rule triggered by the given events can be updated
+     * on the affected messages only, rather than recomputed on the whole timeline.
+     *
+     * @param rule   the scoring rule.
+     * @param events the events that occurred since the last scoring.
+     * @return true if the rule knows how to handle every event it is triggered by.
+     */
+    private boolean isUpdatable(final ScoringRule rule, final Set<ScoringEvent> events) {
+        for (ScoringEvent event : rule.getTriggers()) {
+            if (!events.contains(event)) {
+                continue;
+            }
+            if (event == ScoringEvent.BOOKMARK_CHANGE
+                    && rule instanceof IncrementalScoringRule) {
+                continue;
+            }
+            if (event == ScoringEvent.CLOCK_TICK && rule instanceof TimeBucketedRule) {
+                continue;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Retrieves the contributions of the rules to the score of a message,
+     * allocating them if the message was never scored.
+     *
+     * @param data    the data of the message.
+     * @param nbRules the number of rules.
+     * @return the scores per rule.
+     */
+    private int[] ruleScoresOf(final MessageData data, final int nbRules) {
+        int[] ruleScores = data.getRuleScores();
+        if (ruleScores == null || ruleScores.length != nbRules) {
+            ruleScores = new int[nbRules];
+            data.setRuleScores(ruleScores);
+        }
+        return ruleScores;
+    }
+
+    /**
+     * Sets the score of the given messages to the sum of their base score
+     * and of the contributions of the personalized rules.
+     *
+     * @param targets the scored messages.
+     */
+    private void sumRuleScores(final Targets targets) {
+        for (int i = 0; i < targets.size(); i++) {
+            MessageData data = targets.data[i];
+            int total = targets.messages.get(i).getBaseScore();
+            for (int ruleScore : ruleScoresOf(data, scoringRules.size())) {
+                total += ruleScore;
+            }
+            data.setScore(total);
+        }
+    }
+
+    /**
+     * Messages given to the rules, with their data at the same indexes.
+     */
+    private static final class Targets {
+        private final List<Message> messages;
+        private final MessageData[] data;
+
+        /**
+         * Splits a map of messages to their data into two parallel arrays.
+         *
+         * @param messagesData the messages and their data.
+         */
+        Targets(final Map<Message, MessageData> messagesData) {
+            this.messages = new ArrayList<>(messagesData.keySet());
+            this.data = messagesData.values().toArray(new MessageData[0]);
+        }
+
+        /**
+         * Returns the number of messages.
+         *
+         * @return the number of messages.
+         */
+        int size() {
+            return data.length;
         }
     }
 }
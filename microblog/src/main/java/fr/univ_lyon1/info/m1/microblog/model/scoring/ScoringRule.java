@@ -3,20 +3,78 @@ package fr.univ_lyon1.info.m1.microblog.model.scoring;
 import fr.univ_lyon1.info.m1.microblog.model.Message;
 import fr.univ_lyon1.info.m1.microblog.model.MessageData;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Interface representing a scoring rule for messages.
  * Implementing classes should provide their own logic for computing scores
  * based on the given messages and their associated data.
+ * Rules only write to the accumulator they are given, and may be run
+ * concurrently with other rules: they must not keep any mutable state.
  */
 public interface ScoringRule {
 
+    /**
+     * Computes the contribution of this rule to the scores of the given messages.
+     *
+     * @param messages   the messages to score.
+     * @param bookmarked the bookmarked messages of the whole timeline,
+     *                   which may not all be part of the scored messages.
+     * @param scores     the accumulator of this rule: the contribution to the
+     *                   score of the i-th message has to be added to scores[i].
+     */
+    void computeScores(List<Message> messages, Collection<Message> bookmarked, int[] scores);
+
     /**
      * Computes the scores for the given messages based on the specific scoring rule implementation.
+     * The contribution of the rule is added to the score of each message data.
      *
      * @param messages a map of messages to their associated message data,
      *                 where the key is the message and the value is the corresponding MessageData.
      */
-    void computeScores(Map<Message, MessageData> messages);
+    default void computeScores(final Map<Message, MessageData> messages) {
+        List<Message> scored = new ArrayList<>(messages.keySet());
+        List<Message> bookmarked = new ArrayList<>();
+        messages.forEach((m, d) -> {
+            if (d.isBookmarked()) {
+                bookmarked.add(m);
+            }
+        });
+        int[] scores = new int[scored.size()];
+        computeScores(scored, bookmarked, scores);
+        for (int i = 0; i < scores.length; i++) {
+            MessageData data = messages.get(scored.get(i));
+            data.setScore(data.getScore() + scores[i]);
+        }
+    }
+
+    /**
+     * Returns the events after which the scores already computed by this rule
+     * may change. New messages are always scored by every rule, whatever
+     * their triggers are.
+     * By default, a rule is recomputed after any event.
+     *
+     * @return the set of events this rule depends on.
+     */
+    default Set<ScoringEvent> getTriggers() {
+        return EnumSet.allOf(ScoringEvent.class);
+    }
+
+    /**
+     * Tells whether the contribution of this rule does not depend on the user.
+     * The contribution of such rules is shared by all users: it is computed
+     * once per message when it is posted if the rule has no trigger, and
+     * again after each clock tick for a {@link TimeBucketedRule}.
+     * User-independent rules must have no other trigger than clock ticks.
+     *
+     * @return true if the rule is user-independent.
+     */
+    default boolean isUserIndependent() {
+        return false;
+    }
 }
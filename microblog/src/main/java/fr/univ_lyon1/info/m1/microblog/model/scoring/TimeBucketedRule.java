@@ -0,0 +1,10 @@
+package fr.univ_lyon1.info.m1.microblog.model.scoring;
+
+/**
+ * Time-dependent scoring rule whose scores only depend on the bucket of
+ * {@link RecencyBuckets} each message is in. After a clock tick, such a rule is
+ * only recomputed on the messages that crossed a bucket boundary, instead of
+ * on the whole timeline.
+ */
+public interface TimeBucketedRule extends ScoringRule {
+}
@@ -0,0 +1,87 @@
+package fr.univ_lyon1.info.m1.microblog.model.scoring;
+
+import fr.univ_lyon1.info.m1.microblog.model.Message;
+import fr.univ_lyon1.info.m1.microblog.model.MessageData;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What changed in a timeline since its last scoring, and the already scored
+ * messages affected by these changes.
+ */
+public class TimelineChanges {
+    private final Set<ScoringEvent> events;
+    private final BookmarkChange bookmarkChange;
+    private final Map<Message, MessageData> bookmarkAffected;
+    private final Map<Message, MessageData> aged;
+
+    /**
+     * Constructs the changes of a timeline.
+     *
+     * @param events           the events that occurred since the last scoring.
+     * @param bookmarkChange   the change of the bookmarked words, or null if
+     *                         there is no bookmark change.
+     * @param bookmarkAffected the already scored messages sharing words with
+     *                         the bookmark change.
+     * @param aged             the already scored messages that crossed a
+     *                         boundary of {@link RecencyBuckets}.
+     */
+    public TimelineChanges(final Set<ScoringEvent> events,
+                           final BookmarkChange bookmarkChange,
+                           final Map<Message, MessageData> bookmarkAffected,
+                           final Map<Message, MessageData> aged) {
+        this.events = events;
+        this.bookmarkChange = bookmarkChange;
+        this.bookmarkAffected = bookmarkAffected;
+        this.aged = aged;
+    }
+
+    /**
+     * Changes after which everything has to be recomputed.
+     *
+     * @return changes with every event and no affected message.
+     */
+    public static TimelineChanges all() {
+        return new TimelineChanges(EnumSet.allOf(ScoringEvent.class), null,
+                Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    /**
+     * Retrieves the events that occurred since the last scoring.
+     *
+     * @return the events.
+     */
+    public Set<ScoringEvent> getEvents() {
+        return events;
+    }
+
+    /**
+     * Retrieves the change of the bookmarked words.
+     *
+     * @return the bookmark change, or null if there is none.
+     */
+    public BookmarkChange getBookmarkChange() {
+        return bookmarkChange;
+    }
+
+    /**
+     * Retrieves the already scored messages sharing words with the bookmark change.
+     *
+     * @return the messages affected by the bookmark change, with their data.
+     */
+    public Map<Message, MessageData> getBookmarkAffected() {
+        return bookmarkAffected;
+    }
+
+    /**
+     * Retrieves the already scored messages that crossed a bucket boundary.
+     *
+     * @return the aged messages, with their data.
+     */
+    public Map<Message, MessageData> getAged() {
+        return aged;
+    }
+}
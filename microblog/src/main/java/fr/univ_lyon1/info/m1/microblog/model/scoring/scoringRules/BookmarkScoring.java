@@ -1,12 +1,14 @@
 package fr.univ_lyon1.info.m1.microblog.model.scoring.scoringRules;
 
 import fr.univ_lyon1.info.m1.microblog.model.Message;
-import fr.univ_lyon1.info.m1.microblog.model.MessageData;
-import fr.univ_lyon1.info.m1.microblog.model.scoring.ScoringRule;
+import fr.univ_lyon1.info.m1.microblog.model.scoring.BookmarkChange;
+import fr.univ_lyon1.info.m1.microblog.model.scoring.IncrementalScoringRule;
+import fr.univ_lyon1.info.m1.microblog.model.scoring.ScoringEvent;
 
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -14,43 +16,74 @@ import java.util.Set;
  * The scoring is calculated based on the words in the message content
  * that are also present in bookmarked messages.
  */
-public class BookmarkScoring implements ScoringRule {
+public class BookmarkScoring implements IncrementalScoringRule {
 
     /**
-     * Computes the score for all messages in the provided map.
+     * Computes the score for all messages in the provided list.
      * The score is determined by the number of unique words in a message
-     * that are also found in other bookmarked messages.
+     * that are also found in the given bookmarked messages.
      *
-     * @param messagesData a map of messages to their corresponding metadata,
-     *                     including bookmark status and score.
+     * @param messages   the messages to score.
+     * @param bookmarked the bookmarked messages of the timeline.
+     * @param scores     the accumulator receiving the bonus of each message.
      */
-    public void computeScores(final Map<Message, MessageData> messagesData) {
-        Set<Message> messages = messagesData.keySet();
-        Set<String> bookmarkedWords = new HashSet<>();
+    @Override
+    public void computeScores(final List<Message> messages,
+                              final Collection<Message> bookmarked,
+                              final int[] scores) {
+        BitSet bookmarkedTerms = new BitSet();
 
         // First pass: collect all words from bookmarked messages
-        messages.forEach((Message m) -> {
-            MessageData d = messagesData.get(m);
-            String[] w = m.getContent().toLowerCase().split("[^\\p{Alpha}]+");
-            Set<String> words = new HashSet<>(Arrays.asList(w));
-            d.setWords(words);
-            if (d.isBookmarked()) {
-                bookmarkedWords.addAll(words);
+        for (Message m : bookmarked) {
+            for (int term : m.getTerms()) {
+                bookmarkedTerms.set(term);
             }
-        });
+        }
 
         // Second pass: compute the score based on bookmarked words
-        messages.forEach((Message m) -> {
-            MessageData d = messagesData.get(m);
-            int score = d.getScore();
-            for (String w : d.getWords()) {
-                if (bookmarkedWords.contains(w)) {
-                    score++;
+        for (int i = 0; i < messages.size(); i++) {
+            for (int term : messages.get(i).getTerms()) {
+                if (bookmarkedTerms.get(term)) {
+                    scores[i]++;
                 }
             }
-            d.setScore(score);
-        });
+        }
+    }
 
+    /**
+     * Computes the change of score of the messages sharing words with a
+     * bookmark change: +1 for each of their words that became bookmarked,
+     * -1 for each of their words that no longer is.
+     *
+     * @param messages the messages containing at least one changed word.
+     * @param change   the change of the bookmarked words.
+     * @param deltas   the accumulator receiving the change of each message.
+     */
+    @Override
+    public void updateScores(final List<Message> messages,
+                             final BookmarkChange change,
+                             final int[] deltas) {
+        BitSet added = change.getAddedTerms();
+        BitSet removed = change.getRemovedTerms();
+        for (int i = 0; i < messages.size(); i++) {
+            for (int term : messages.get(i).getTerms()) {
+                if (added.get(term)) {
+                    deltas[i]++;
+                } else if (removed.get(term)) {
+                    deltas[i]--;
+                }
+            }
+        }
+    }
+
+    /**
+     * The scores of this rule only change when bookmarks change.
+     *
+     * @return the bookmark change event.
+     */
+    @Override
+    public Set<ScoringEvent> getTriggers() {
+        return EnumSet.of(ScoringEvent.BOOKMARK_CHANGE);
     }
 
 }
@@ -1,10 +1,14 @@
 package fr.univ_lyon1.info.m1.microblog.model.scoring.scoringRules;
 
 import fr.univ_lyon1.info.m1.microblog.model.Message;
-import fr.univ_lyon1.info.m1.microblog.model.MessageData;
+import fr.univ_lyon1.info.m1.microblog.model.TermDictionary;
+import fr.univ_lyon1.info.m1.microblog.model.scoring.ScoringEvent;
 import fr.univ_lyon1.info.m1.microblog.model.scoring.ScoringRule;
 
-import java.util.Map;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -14,23 +18,61 @@ import java.util.Set;
  */
 public class ForbiddenWordsScoring implements ScoringRule {
     private final Set<String> forbiddenWords = Set.of("hello");
+    /**
+     * Term IDs of the forbidden words.
+     */
+    private final BitSet forbiddenTerms = new BitSet();
 
     /**
-     * Computes the score for all messages in the provided map.
+     * Constructs the rule, looking up the term IDs of the forbidden words.
+     */
+    public ForbiddenWordsScoring() {
+        for (String word : forbiddenWords) {
+            forbiddenTerms.set(TermDictionary.idOf(word));
+        }
+    }
+
+    /**
+     * Computes the score for all messages in the provided list.
      * The score is determined by the number of unique words in a message
      * that are also found in the forbidden words set
      *
-     * @param messagesData a map of messages to their corresponding metadata,
-     *                     including bookmark status and score.
+     * @param messages   the messages to score.
+     * @param bookmarked the bookmarked messages of the timeline, unused.
+     * @param scores     the accumulator receiving the penalty of each message.
+     */
+    @Override
+    public void computeScores(final List<Message> messages,
+                              final Collection<Message> bookmarked,
+                              final int[] scores) {
+        for (int i = 0; i < messages.size(); i++) {
+            int penalty = 0;
+            for (int term : messages.get(i).getTerms()) {
+                if (forbiddenTerms.get(term)) {
+                    penalty++;
+                }
+            }
+            scores[i] -= penalty * 5; // Applique un malus
+        }
+    }
+
+    /**
+     * The scores of this rule only depend on the content of each message.
+     *
+     * @return an empty set of events.
+     */
+    @Override
+    public Set<ScoringEvent> getTriggers() {
+        return EnumSet.noneOf(ScoringEvent.class);
+    }
+
+    /**
+     * The scores of this rule are the same for every user.
+     *
+     * @return true.
      */
     @Override
-    public void computeScores(final Map<Message, MessageData> messagesData) {
-        messagesData.forEach((message, data) -> {
-            long penalty = data.getWords().stream()
-                    .map(String::toLowerCase)
-                    .filter(forbiddenWords::contains)
-                    .count();
-            data.setScore(data.getScore() - (int) penalty * 5); // Applique un malus
-        });
+    public boolean isUserIndependent() {
+        return true;
     }
 }
@@ -2,10 +2,13 @@ package fr.univ_lyon1.info.m1.microblog.model.scoring.scoringRules;
 
 
 import fr.univ_lyon1.info.m1.microblog.model.Message;
-import fr.univ_lyon1.info.m1.microblog.model.MessageData;
+import fr.univ_lyon1.info.m1.microblog.model.scoring.ScoringEvent;
 import fr.univ_lyon1.info.m1.microblog.model.scoring.ScoringRule;
+import java.util.Collection;
 
-import java.util.Map;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Responsible for scoring messages based on the length of the message.
@@ -13,19 +16,42 @@ import java.util.Map;
 public class LengthBasedScoring implements ScoringRule {
 
     /**
-     * Computes the score for all messages in the provided map.
+     * Computes the score for all messages in the provided list.
      * The score is determined by the number of characters
      * (including spaces) in the message
      *
-     * @param messagesData a map of messages to their corresponding metadata,
-     *                     including bookmark status and score.
+     * @param messages   the messages to score.
+     * @param bookmarked the bookmarked messages of the timeline, unused.
+     * @param scores     the accumulator receiving the bonus of each message.
      */
     @Override
-    public void computeScores(final Map<Message, MessageData> messagesData) {
-        messagesData.forEach((message, data) -> {
-            int length = message.getContent().length();
+    public void computeScores(final List<Message> messages,
+                              final Collection<Message> bookmarked,
+                              final int[] scores) {
+        for (int i = 0; i < messages.size(); i++) {
+            int length = messages.get(i).getContent().length();
             int bonus = length > 100 ? 2 : 0;
-            data.setScore(data.getScore() + bonus);
-        });
+            scores[i] += bonus;
+        }
+    }
+
+    /**
+     * The scores of this rule only depend on the content of each message.
+     *
+     * @return an empty set of events.
+     */
+    @Override
+    public Set<ScoringEvent> getTriggers() {
+        return EnumSet.noneOf(ScoringEvent.class);
+    }
+
+    /**
+     * The scores of this rule are the same for every user.
+     *
+     * @return true.
+     */
+    @Override
+    public boolean isUserIndependent() {
+        return true;
     }
 }
@@ -1,52 +1,62 @@
 package fr.univ_lyon1.info.m1.microblog.model.scoring.scoringRules;
 
 import fr.univ_lyon1.info.m1.microblog.model.Message;
-import fr.univ_lyon1.info.m1.microblog.model.MessageData;
-import fr.univ_lyon1.info.m1.microblog.model.scoring.ScoringRule;
+import fr.univ_lyon1.info.m1.microblog.model.scoring.RecencyBuckets;
+import fr.univ_lyon1.info.m1.microblog.model.scoring.ScoringEvent;
+import fr.univ_lyon1.info.m1.microblog.model.scoring.TimeBucketedRule;
+import java.util.Collection;
 
-import java.util.Map;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Set;
-import java.util.Date;
-
-import java.util.concurrent.TimeUnit;
 
 /**
  * Responsible for scoring messages based on the date of the messages.
  * +1 if < 7 days
  * Another +1 if < 24h
  */
-public class RecentMessagesScoring implements ScoringRule {
+public class RecentMessagesScoring implements TimeBucketedRule {
+    /**
+     * Bonus of the messages of each bucket of {@link RecencyBuckets}.
+     */
+    private static final int[] BUCKET_BONUS = {2, 1, 0};
 
     /**
-     * Computes the score for all messages in the provided map.
-     * The score is determined by date of the message
+     * Computes the score for all messages in the provided list.
+     * The score is determined by the recency bucket of the message at the
+     * last clock tick, so the clock is not read for each message.
      *
-     * @param messagesData a map of messages to their corresponding metadata,
-     *                     including bookmark status and score.
+     * @param messages   the messages to score.
+     * @param bookmarked the bookmarked messages of the timeline, unused.
+     * @param scores     the accumulator receiving the bonus of each message.
      */
     @Override
-    public void computeScores(final Map<Message, MessageData> messagesData) {
-        Set<Message> messages = messagesData.keySet();
-
-        messages.forEach((Message m) -> {
-            MessageData d = messagesData.get(m);
-            int bonus = 0;
-            int score = d.getScore();
-            long currentTime = new Date().getTime();
-            long messageTime = m.getDate().getTime();
-            long diff = currentTime - messageTime;
-            long difference =  TimeUnit.HOURS.convert(diff, TimeUnit.MILLISECONDS);
-
-            if (difference < 24) {
-                bonus += 1;
-            }
-            if (difference < 168) {
-                bonus += 1;
-            }
+    public void computeScores(final List<Message> messages,
+                              final Collection<Message> bookmarked,
+                              final int[] scores) {
+        for (int i = 0; i < messages.size(); i++) {
+            long messageTime = messages.get(i).getDate();
+            scores[i] += BUCKET_BONUS[RecencyBuckets.bucketOf(messageTime)];
+        }
+    }
 
-            score += bonus;
+    /**
+     * The scores of this rule change as time passes.
+     *
+     * @return the clock tick event.
+     */
+    @Override
+    public Set<ScoringEvent> getTriggers() {
+        return EnumSet.of(ScoringEvent.CLOCK_TICK);
+    }
 
-            d.setScore(score);
-        });
+    /**
+     * The bonus only depends on the date of the message.
+     *
+     * @return true, the bonus is the same for all users.
+     */
+    @Override
+    public boolean isUserIndependent() {
+        return true;
     }
 }
@@ -0,0 +1,234 @@
+package fr.univ_lyon1.info.m1.microblog.observer;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Changes of the model published to the observers, so that they only update
+ * what changed instead of rebuilding everything.
+ * Several change sets can be aggregated into one with a {@link Builder}.
+ */
+public final class ChangeSet {
+    private final boolean everything;
+    private final Set<String> addedUserIds;
+    private final Set<Long> addedMessageIds;
+    private final Set<Long> removedMessageIds;
+    private final Set<String> changedTimelines;
+    private final Set<String> rescoredTimelines;
+
+    /**
+     * Constructs a change set.
+     *
+     * @param everything        whether anything in the model may have changed.
+     * @param addedUserIds      the IDs of the created users.
+     * @param addedMessageIds   the IDs of the posted messages.
+     * @param removedMessageIds the IDs of the deleted messages.
+     * @param changedTimelines  the IDs of the users whose bookmarks changed.
+     * @param rescoredTimelines the IDs of the users whose displayed timeline
+     *                          changed when they were scored.
+     */
+    private ChangeSet(final boolean everything,
+                      final Set<String> addedUserIds,
+                      final Set<Long> addedMessageIds,
+                      final Set<Long> removedMessageIds,
+                      final Set<String> changedTimelines,
+                      final Set<String> rescoredTimelines) {
+        this.everything = everything;
+        this.addedUserIds = addedUserIds;
+        this.addedMessageIds = addedMessageIds;
+        this.removedMessageIds = removedMessageIds;
+        this.changedTimelines = changedTimelines;
+        this.rescoredTimelines = rescoredTimelines;
+    }
+
+    /**
+     * Change set telling that anything may have changed.
+     *
+     * @return a change set affecting every user and every message.
+     */
+    public static ChangeSet everything() {
+        return new ChangeSet(true, Collections.emptySet(), Collections.emptySet(),
+                Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+    }
+
+    /**
+     * Change set of the creation of a user.
+     *
+     * @param userId the ID of the created user.
+     * @return the change set.
+     */
+    public static ChangeSet userAdded(final String userId) {
+        return new ChangeSet(false, Set.of(userId), Collections.emptySet(),
+                Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+    }
+
+    /**
+     * Change set of the posting of a message.
+     *
+     * @param messageId the ID of the posted message.
+     * @return the change set.
+     */
+    public static ChangeSet messageAdded(final long messageId) {
+        return new ChangeSet(false, Collections.emptySet(), Set.of(messageId),
+                Collections.emptySet(), Collections.emptySet(), Collections.emptySet());
+    }
+
+    /**
+     * Change set of the deletion of a message.
+     *
+     * @param messageId the ID of the deleted message.
+     * @return the change set.
+     */
+    public static ChangeSet messageRemoved(final long messageId) {
+        return new ChangeSet(false, Collections.emptySet(), Collections.emptySet(),
+                Set.of(messageId), Collections.emptySet(), Collections.emptySet());
+    }
+
+    /**
+     * Change set of a change of the timeline of a single user, such as a
+     * bookmark being toggled.
+     *
+     * @param userId the ID of the user.
+     * @return the change set.
+     */
+    public static ChangeSet timelineChanged(final String userId) {
+        return new ChangeSet(false, Collections.emptySet(), Collections.emptySet(),
+                Collections.emptySet(), Set.of(userId), Collections.emptySet());
+    }
+
+    /**
+     * Change set of the scoring of users, reporting those whose displayed
+     * timeline changed. Unlike the other changes, it does not call for
+     * scoring these users again, only for displaying their timeline.
+     *
+     * @param userIds the IDs of the users whose displayed timeline changed.
+     * @return the change set.
+     */
+    public static ChangeSet scoresChanged(final Collection<String> userIds) {
+        return new ChangeSet(false, Collections.emptySet(), Collections.emptySet(),
+                Collections.emptySet(), Collections.emptySet(), Set.copyOf(userIds));
+    }
+
+    /**
+     * Tells whether anything in the model may have changed.
+     *
+     * @return true if the observers should check everything.
+     */
+    public boolean isEverything() {
+        return everything;
+    }
+
+    /**
+     * Tells whether the timelines of all users may have changed, because
+     * messages were posted or deleted.
+     *
+     * @return true if every user should be scored again.
+     */
+    public boolean affectsAllTimelines() {
+        return everything || !addedMessageIds.isEmpty() || !removedMessageIds.isEmpty();
+    }
+
+    /**
+     * Retrieves the IDs of the created users.
+     *
+     * @return the IDs of the created users.
+     */
+    public Set<String> getAddedUserIds() {
+        return addedUserIds;
+    }
+
+    /**
+     * Retrieves the IDs of the posted messages.
+     *
+     * @return the IDs of the posted messages.
+     */
+    public Set<Long> getAddedMessageIds() {
+        return addedMessageIds;
+    }
+
+    /**
+     * Retrieves the IDs of the deleted messages.
+     *
+     * @return the IDs of the deleted messages.
+     */
+    public Set<Long> getRemovedMessageIds() {
+        return removedMessageIds;
+    }
+
+    /**
+     * Retrieves the IDs of the users whose timeline changed, other than
+     * through posted or deleted messages.
+     *
+     * @return the IDs of the users.
+     */
+    public Set<String> getChangedTimelines() {
+        return changedTimelines;
+    }
+
+    /**
+     * Retrieves the IDs of the users whose displayed timeline changed when
+     * they were scored.
+     *
+     * @return the IDs of the users.
+     */
+    public Set<String> getRescoredTimelines() {
+        return rescoredTimelines;
+    }
+
+    /**
+     * Aggregates several change sets into a single one.
+     */
+    public static final class Builder {
+        private boolean everything = false;
+        private final Set<String> addedUserIds = new LinkedHashSet<>();
+        private final Set<Long> addedMessageIds = new LinkedHashSet<>();
+        private final Set<Long> removedMessageIds = new LinkedHashSet<>();
+        private final Set<String> changedTimelines = new LinkedHashSet<>();
+        private final Set<String> rescoredTimelines = new LinkedHashSet<>();
+
+        /**
+         * Adds the changes of a change set to the aggregated ones.
+         * A message posted then deleted is only reported as deleted.
+         *
+         * @param changes the change set to aggregate.
+         * @return this builder.
+         */
+        public Builder add(final ChangeSet changes) {
+            everything |= changes.everything;
+            addedUserIds.addAll(changes.addedUserIds);
+            addedMessageIds.addAll(changes.addedMessageIds);
+            addedMessageIds.removeAll(changes.removedMessageIds);
+            removedMessageIds.addAll(changes.removedMessageIds);
+            changedTimelines.addAll(changes.changedTimelines);
+            rescoredTimelines.addAll(changes.rescoredTimelines);
+            return this;
+        }
+
+        /**
+         * Tells whether no change was aggregated.
+         *
+         * @return true if the aggregated change set would be empty.
+         */
+        public boolean isEmpty() {
+            return !everything && addedUserIds.isEmpty() && addedMessageIds.isEmpty()
+                    && removedMessageIds.isEmpty() && changedTimelines.isEmpty()
+                    && rescoredTimelines.isEmpty();
+        }
+
+        /**
+         * Creates the change set of the aggregated changes.
+         *
+         * @return the aggregated change set.
+         */
+        public ChangeSet build() {
+            return new ChangeSet(everything,
+                    Collections.unmodifiableSet(new LinkedHashSet<>(addedUserIds)),
+                    Collections.unmodifiableSet(new LinkedHashSet<>(addedMessageIds)),
+                    Collections.unmodifiableSet(new LinkedHashSet<>(removedMessageIds)),
+                    Collections.unmodifiableSet(new LinkedHashSet<>(changedTimelines)),
+                    Collections.unmodifiableSet(new LinkedHashSet<>(rescoredTimelines)));
+        }
+    }
+}
@@ -7,6 +7,8 @@ package fr.univ_lyon1.info.m1.microblog.observer;
 public interface Observer {
    /**
     * Updates the observer with the latest information or state changes.
+    *
+    * @param changes what changed in the model since the last update.
     */
-   void update();
+   void update(ChangeSet changes);
 }
@@ -0,0 +1,445 @@
+package fr.univ_lyon1.info.m1.microblog.persistence;
+
+import fr.univ_lyon1.info.m1.microblog.model.Archive;
+import fr.univ_lyon1.info.m1.microblog.model.Message;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Cold tier of the model on disk: an append-only file of the messages moved
+ * out of the hot window, each one a record made of its length, a CRC32
+ * checksum and the encoded message. A removed message is marked by a later
+ * record holding only its ID.
+ * Only a compact index of the records is kept in memory: two arrays of
+ * message IDs and file offsets, sorted by ID. Loaded messages are cached,
+ * the most recently loaded ones first.
+ */
+public final class ColdArchive implements Archive, AutoCloseable {
+    /**
+     * Number of loaded messages kept in memory.
+     */
+    private static final int CACHE_SIZE = 1024;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private final Path path;
+    private final FileChannel channel;
+    /**
+     * IDs of the stored messages, sorted, then the IDs stored since the last
+     * sort, in storing order.
+     */
+    private long[] ids = new long[1024];
+    /**
+     * Offsets of the records of the messages, in the order of {@link #ids}.
+     * The offsets of removed messages are encoded by {@link #removedAt}.
+     */
+    private long[] offsets = new long[1024];
+    private int size = 0;
+    /**
+     * Number of removed messages, still in the index.
+     */
+    private int removed = 0;
+    /**
+     * Number of IDs at the start of {@link #ids} that are sorted.
+     */
+    private int sorted = 0;
+    private final Map<Long, Message> cache = new LinkedHashMap<>(CACHE_SIZE * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, Message> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Opens the archive stored in a file, indexing its records. A record
+     * torn by a crash at the end of the file is discarded.
+     *
+     * @param path the archive file, created if needed.
+     * @return the opened archive.
+     * @throws IOException if the archive cannot be read or opened for writing.
+     */
+    public static ColdArchive open(final Path path) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        ColdArchive archive = new ColdArchive(path);
+        archive.index();
+        return archive;
+    }
+
+    /**
+     * Constructs an archive, without indexing it.
+     *
+     * @param path the archive file.
+     * @throws IOException if the file cannot be opened.
+     */
+    private ColdArchive(final Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Retrieves the number of stored messages.
+     *
+     * @return the number of messages.
+     */
+    public synchronized int size() {
+        return size - removed;
+    }
+
+    @Override
+    public synchronized void store(final Collection<Message> messages) {
+        sortIndex();
+        List<byte[]> records = new ArrayList<>(messages.size());
+        int length = 0;
+        for (Message message : messages) {
+            if (Arrays.binarySearch(ids, 0, size, message.getId()) >= 0) {
+                continue;
+            }
+            byte[] record = encode(message);
+            records.add(record);
+            length += record.length;
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        try {
+            long offset = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            for (byte[] record : records) {
+                buffer.put(record);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, offset + buffer.position());
+            }
+            channel.force(false);
+            for (byte[] record : records) {
+                addToIndex(ByteBuffer.wrap(record, HEADER_SIZE, Long.BYTES).getLong(), offset);
+                offset += record.length;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to archive messages in " + path, e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws UncheckedIOException if the message cannot be read.
+     */
+    @Override
+    public synchronized Message load(final long messageId) {
+        Message cached = cache.get(messageId);
+        if (cached != null) {
+            return cached;
+        }
+        sortIndex();
+        int i = Arrays.binarySearch(ids, 0, size, messageId);
+        if (i < 0 || offsets[i] < 0) {
+            return null;
+        }
+        try {
+            Message message = read(offsets[i]);
+            cache.put(messageId, message);
+            return message;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load a message from " + path, e);
+        }
+    }
+
+    @Override
+    public synchronized void remove(final long messageId) {
+        sortIndex();
+        int i = Arrays.binarySearch(ids, 0, size, messageId);
+        if (i < 0 || offsets[i] < 0) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + Long.BYTES);
+        record.position(HEADER_SIZE);
+        record.putLong(messageId);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, Long.BYTES);
+        record.putInt(0, Long.BYTES);
+        record.putInt(Integer.BYTES, (int) crc.getValue());
+        record.flip();
+        try {
+            long offset = channel.size();
+            while (record.hasRemaining()) {
+                channel.write(record, offset + record.position());
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to remove a message from " + path, e);
+        }
+        offsets[i] = removedAt(offsets[i]);
+        removed++;
+        cache.remove(messageId);
+    }
+
+    /**
+     * Closes the archive file.
+     *
+     * @throws UncheckedIOException if the file cannot be closed.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to close the archive " + path, e);
+        }
+    }
+
+    /**
+     * Indexes the records of the file, and truncates a torn record at its end.
+     * The most recent message is then read, so that the IDs allocated
+     * afterwards are greater than the IDs of the archived messages, even
+     * removed ones.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    private void index() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        Set<Long> removedIds = new HashSet<>();
+        long position = 0;
+        long fileSize = channel.size();
+        while (position + HEADER_SIZE <= fileSize) {
+            readFully(header.clear(), position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length <= 0 || position + HEADER_SIZE + length > fileSize) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload, position + HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            if (length == Long.BYTES) {
+                removedIds.add(payload.getLong(0));
+            } else {
+                addToIndex(payload.getLong(0), position);
+            }
+            position += HEADER_SIZE + length;
+        }
+        if (position < fileSize) {
+            System.err.println("Discarding a torn record at the end of " + path);
+            channel.truncate(position);
+        }
+        if (size > 0) {
+            sortIndex();
+            for (long id : removedIds) {
+                int i = Arrays.binarySearch(ids, 0, size, id);
+                if (i >= 0 && offsets[i] >= 0) {
+                    offsets[i] = removedAt(offsets[i]);
+                    removed++;
+                }
+            }
+            long last = offsets[size - 1];
+            read(last < 0 ? removedAt(last) : last);
+        }
+    }
+
+    /**
+     * Encodes the offset of the record of a removed message, or decodes it
+     * back: encoded offsets are negative.
+     *
+     * @param offset the offset of the record, or the encoded one.
+     * @return the encoded offset, or the offset of the record.
+     */
+    private static long removedAt(final long offset) {
+        return -offset - 1;
+    }
+
+    /**
+     * Reads and decodes the record of a message.
+     *
+     * @param offset the offset of the record.
+     * @return the message.
+     * @throws IOException if the file cannot be read.
+     */
+    private Message read(final long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, offset);
+        ByteBuffer payload = ByteBuffer.allocate(header.flip().getInt());
+        readFully(payload, offset + HEADER_SIZE);
+        return decode(payload.flip());
+    }
+
+    /**
+     * Appends a record to the index.
+     *
+     * @param id     the ID of the message.
+     * @param offset the offset of its record.
+     */
+    private void addToIndex(final long id, final long offset) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        ids[size] = id;
+        offsets[size] = offset;
+        size++;
+        // Messages are mostly archived in ID order, keeping the index sorted
+        if (sorted == size - 1 && (size == 1 || ids[size - 2] < id)) {
+            sorted = size;
+        }
+    }
+
+    /**
+     * Sorts the IDs added since the last sort, and merges them with the
+     * sorted ones.
+     */
+    private void sortIndex() {
+        if (sorted == size) {
+            return;
+        }
+        Long[] order = new Long[size - sorted];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = (long) (sorted + i);
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(ids[a.intValue()], ids[b.intValue()]));
+        long[] mergedIds = new long[ids.length];
+        long[] mergedOffsets = new long[offsets.length];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < size; k++) {
+            if (j >= order.length
+                    || i < sorted && ids[i] < ids[order[j].intValue()]) {
+                mergedIds[k] = ids[i];
+                mergedOffsets[k] = offsets[i++];
+            } else {
+                int added = order[j++].intValue();
+                mergedIds[k] = ids[added];
+                mergedOffsets[k] = offsets[added];
+            }
+        }
+        ids = mergedIds;
+        offsets = mergedOffsets;
+        sorted = size;
+    }
+
+    /**
+     * Reads from the file until a buffer is full.
+     *
+     * @param buffer   the buffer to fill.
+     * @param position the position in the file to read from.
+     * @throws IOException if the file cannot be read.
+     */
+    private void readFully(final ByteBuffer buffer, final long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + path);
+            }
+            offset += read;
+        }
+    }
+
+    /**
+     * Encodes a message as a record.
+     *
+     * @param message the message.
+     * @return the bytes of the record, as written to the file.
+     */
+    private static byte[] encode(final Message message) {
+        // Decoded from the content store once
+        String contentString = message.getContent();
+        byte[] publisher = encodeString(message.getPublisherId());
+        byte[] content = encodeString(contentString);
+        int length = 2 * Long.BYTES + 4 * Integer.BYTES + publisher.length + content.length;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.position(HEADER_SIZE);
+        record.putLong(message.getId());
+        record.putLong(message.getDate());
+        record.putInt(message.hasStaticScore() ? 1 : 0);
+        record.putInt(message.hasStaticScore() ? message.getStaticScore() : 0);
+        putString(record, message.getPublisherId(), publisher);
+        putString(record, contentString, content);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), HEADER_SIZE, length);
+        record.putInt(0, length);
+        record.putInt(Integer.BYTES, (int) crc.getValue());
+        return record.array();
+    }
+
+    /**
+     * Decodes the payload of a record.
+     *
+     * @param payload the payload.
+     * @return the message.
+     */
+    private static Message decode(final ByteBuffer payload) {
+        long id = payload.getLong();
+        long date = payload.getLong();
+        boolean scored = payload.getInt() != 0;
+        int staticScore = payload.getInt();
+        String publisherId = getString(payload);
+        String content = getString(payload);
+        Message message = Message.archived(id, publisherId, content, date);
+        if (scored) {
+            message.setStaticScore(staticScore);
+        }
+        return message;
+    }
+
+    /**
+     * Encodes a nullable string in UTF-8.
+     *
+     * @param value the string, or null.
+     * @return the encoded string, empty for null.
+     */
+    private static byte[] encodeString(final String value) {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends a length-prefixed nullable string to a record.
+     *
+     * @param record  the record.
+     * @param value   the string, or null.
+     * @param encoded the encoded string.
+     */
+    private static void putString(final ByteBuffer record, final String value,
+                                  final byte[] encoded) {
+        record.putInt(value == null ? -1 : encoded.length);
+        record.put(encoded);
+    }
+
+    /**
+     * Decodes a length-prefixed nullable string.
+     *
+     * @param payload the payload of a record.
+     * @return the string, or null.
+     */
+    private static String getString(final ByteBuffer payload) {
+        int length = payload.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,886 @@
+package fr.univ_lyon1.info.m1.microblog.persistence;
+
+import fr.univ_lyon1.info.m1.microblog.model.Journal;
+import fr.univ_lyon1.info.m1.microblog.model.Message;
+import fr.univ_lyon1.info.m1.microblog.model.ModelSnapshot;
+import fr.univ_lyon1.info.m1.microblog.model.Y;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Durable, append-only log of the changes made to the model.
+ * The log is split into segment files of bounded size. Each change is one
+ * record: its length, a CRC32 checksum and the encoded change.
+ * Changes are queued and written by a single writer thread, which writes
+ * all the changes queued at once in a single group, then forces them to
+ * disk once for the whole group (group commit).
+ * On opening, the existing segments are replayed into the model; a record
+ * torn by a crash at the end of the log is discarded.
+ * To bound the replay time and the disk usage, snapshots of the model can be
+ * taken in the background: a snapshot is taken at the start of a new
+ * segment, and once it is written, the segments before it are deleted.
+ * On opening, the latest snapshot is loaded, then only the segments written
+ * after it are replayed.
+ * If a group cannot be written, the segment is truncated back to the end of
+ * the last durable group and the log fails: the later changes are rejected,
+ * so that no record is ever written after a torn one, and the failure is
+ * reported to the failure handler.
+ */
+public final class EventLog implements Journal, AutoCloseable {
+    /**
+     * Size after which a new segment is started, in bytes.
+     */
+    static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+    /**
+     * Maximum number of changes waiting to be written; writers block beyond.
+     */
+    private static final int QUEUE_CAPACITY = 65_536;
+    /**
+     * Number of consecutive posted messages replayed into the model at once.
+     */
+    private static final int REPLAY_BATCH_SIZE = 10_000;
+    private static final String SEGMENT_PREFIX = "events-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+    private static final byte USER_CREATED = 1;
+    private static final byte MESSAGE_ADDED = 2;
+    private static final byte MESSAGE_DELETED = 3;
+    private static final byte BOOKMARK_CHANGED = 4;
+
+    private final Path directory;
+    private final BlockingQueue<PendingWrite> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    /**
+     * Thread writing the snapshots in the background.
+     */
+    private final ScheduledExecutorService snapshotExecutor;
+    /**
+     * Number of changes appended since the last snapshot.
+     */
+    private final AtomicLong changesSinceSnapshot = new AtomicLong();
+    /**
+     * Segment being appended to, only used by the writer thread.
+     */
+    private FileChannel channel;
+    private long segmentIndex;
+    /**
+     * Size of the current segment once its last group was forced to disk,
+     * only used by the writer thread.
+     */
+    private long durableSize;
+    /**
+     * Failure of the writer, after which the changes are rejected.
+     */
+    private volatile IOException failure;
+    private volatile Consumer<IOException> failureHandler = e -> { };
+    private long replayedEvents = 0;
+    private boolean restoredSnapshot = false;
+    private volatile boolean closed = false;
+
+    /**
+     * Opens the log stored in a directory, replays it into the model, then
+     * starts appending to it. The log is not set as the journal of the model.
+     *
+     * @param directory the directory of the segments, created if needed.
+     * @param y         the model to rebuild from the log.
+     * @return the opened log.
+     * @throws IOException if the log cannot be read or opened for writing, or
+     *                     if a segment before the last one is corrupted, in
+     *                     which case the model holds the changes before the
+     *                     corruption.
+     */
+    public static EventLog open(final Path directory, final Y y) throws IOException {
+        Files.createDirectories(directory);
+        EventLog log = new EventLog(directory);
+        List<SnapshotFile> snapshots = SnapshotFile.list(directory);
+        List<Path> segments = new ArrayList<>();
+        try {
+            y.batch(() -> {
+                long firstSegment = log.restoreLatestSnapshot(snapshots, y);
+                try {
+                    for (Path segment : listSegments(directory)) {
+                        if (indexOf(segment) >= firstSegment) {
+                            segments.add(segment);
+                        }
+                    }
+                    log.replay(segments, y);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                log.segmentIndex = firstSegment;
+            });
+        } catch (UncheckedIOException e) {
+            log.snapshotExecutor.shutdown();
+            throw e.getCause();
+        }
+        log.openLastSegment(segments);
+        log.writer.start();
+        return log;
+    }
+
+    /**
+     * Constructs a log, without opening it.
+     *
+     * @param directory the directory of the segments.
+     */
+    private EventLog(final Path directory) {
+        this.directory = directory;
+        this.writer = new Thread(this::writeLoop, "event-log-writer");
+        this.writer.setDaemon(true);
+        this.snapshotExecutor = new ScheduledThreadPoolExecutor(1, task -> {
+            Thread thread = new Thread(task, "event-log-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Retrieves the number of changes replayed when the log was opened.
+     *
+     * @return the number of replayed changes.
+     */
+    public long getReplayedEvents() {
+        return replayedEvents;
+    }
+
+    /**
+     * Tells whether the log was empty when opened, i.e. it held neither a
+     * snapshot nor any change.
+     *
+     * @return true if nothing was restored into the model.
+     */
+    public boolean isEmpty() {
+        return !restoredSnapshot && replayedEvents == 0;
+    }
+
+    @Override
+    public void userCreated(final String userId) {
+        Record record = new Record(USER_CREATED);
+        record.putString(userId);
+        append(record);
+    }
+
+    @Override
+    public void messageAdded(final Message message) {
+        Record record = new Record(MESSAGE_ADDED);
+        record.putLong(message.getId());
+        record.putString(message.getPublisherId());
+        record.putString(message.getContent());
+        record.putLong(message.getDate());
+        append(record);
+    }
+
+    @Override
+    public void messageDeleted(final long messageId) {
+        Record record = new Record(MESSAGE_DELETED);
+        record.putLong(messageId);
+        append(record);
+    }
+
+    @Override
+    public void bookmarkChanged(final String userId, final long messageId,
+                                final boolean bookmarked) {
+        Record record = new Record(BOOKMARK_CHANGED);
+        record.putString(userId);
+        record.putLong(messageId);
+        record.putByte(bookmarked ? (byte) 1 : (byte) 0);
+        append(record);
+    }
+
+    /**
+     * Sets the handler called once, from the writer thread, if the changes
+     * cannot be written anymore. The model then holds changes that are not
+     * in the log.
+     *
+     * @param handler the handler, receiving the write failure.
+     */
+    public void setFailureHandler(final Consumer<IOException> handler) {
+        this.failureHandler = handler;
+    }
+
+    /**
+     * Waits until all the changes appended so far are on disk.
+     *
+     * @return a future completed once the changes are durable, or failed if
+     *         the log failed.
+     */
+    public CompletableFuture<Void> sync() {
+        PendingWrite marker = new PendingWrite(null, false);
+        enqueue(marker);
+        return marker.done.thenAccept(segment -> { });
+    }
+
+    /**
+     * Takes a snapshot of the model in the background.
+     * Changes are only paused while the model is captured; a new segment is
+     * started at that point, and the snapshot is then written by the
+     * snapshot thread. Once it is on disk, the previous segments and
+     * snapshots are deleted.
+     *
+     * @param y the model, whose journal is this log.
+     * @return a future completed once the snapshot is on disk.
+     */
+    public CompletableFuture<Void> snapshot(final Y y) {
+        PendingWrite roll = new PendingWrite(null, true);
+        ModelSnapshot state = capture(y, roll);
+        return roll.done.thenAcceptAsync(segment -> {
+            try {
+                writeSnapshot(state, segment);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, snapshotExecutor);
+    }
+
+    /**
+     * Takes a snapshot of the model periodically, when it changed since the
+     * previous snapshot.
+     *
+     * @param y      the model, whose journal is this log.
+     * @param period the time between two snapshots.
+     * @param unit   the unit of the period.
+     */
+    public void startSnapshots(final Y y, final long period, final TimeUnit unit) {
+        snapshotExecutor.scheduleWithFixedDelay(() -> {
+            if (changesSinceSnapshot.get() == 0 || failure != null) {
+                return;
+            }
+            PendingWrite roll = new PendingWrite(null, true);
+            ModelSnapshot state = capture(y, roll);
+            try {
+                // Already on the snapshot thread, which would wait for itself
+                // if the writing was queued to it
+                writeSnapshot(state, roll.done.join());
+            } catch (IOException | CompletionException e) {
+                System.err.println("Failed to take a snapshot: " + e);
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Captures the model and starts a new segment at that point.
+     *
+     * @param y    the model, whose journal is this log.
+     * @param roll the write starting the new segment.
+     * @return the captured state, to be written once the segment is started.
+     */
+    private ModelSnapshot capture(final Y y, final PendingWrite roll) {
+        return y.capture(() -> {
+            changesSinceSnapshot.set(0);
+            enqueue(roll);
+        });
+    }
+
+    /**
+     * Writes the pending changes to disk, then stops the writer and snapshot
+     * threads. A snapshot being written is completed first.
+     *
+     * @throws CompletionException  if the pending changes cannot be written,
+     *                              including when the log failed earlier.
+     * @throws UncheckedIOException if the current segment cannot be closed.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        snapshotExecutor.shutdown();
+        try {
+            snapshotExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        CompletionException failure = null;
+        try {
+            sync().join();
+        } catch (CompletionException e) {
+            failure = e;
+        }
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to close the event log in " + directory, e);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Queues a change to be written by the next group.
+     *
+     * @param record the encoded change.
+     */
+    private void append(final Record record) {
+        changesSinceSnapshot.incrementAndGet();
+        enqueue(new PendingWrite(record.toBytes(), false));
+    }
+
+    /**
+     * Queues a write, blocking while the queue is full.
+     * The write is failed at once if the log is closed or failed.
+     *
+     * @param write the pending write.
+     */
+    private void enqueue(final PendingWrite write) {
+        if (closed) {
+            write.done.completeExceptionally(new IOException("The event log is closed"));
+            return;
+        }
+        if (failure != null) {
+            write.done.completeExceptionally(failure);
+            return;
+        }
+        try {
+            queue.put(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            write.done.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Loop of the writer thread: writes the queued changes by groups.
+     * Once a group fails, the queued and later changes are failed with it.
+     */
+    private void writeLoop() {
+        List<PendingWrite> group = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                queue.drainTo(group);
+                if (failure != null) {
+                    throw failure;
+                }
+                writeGroup(group);
+                for (PendingWrite write : group) {
+                    write.done.complete(write.segment);
+                }
+            } catch (IOException e) {
+                if (failure == null) {
+                    fail(e);
+                }
+                for (PendingWrite write : group) {
+                    write.done.completeExceptionally(e);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queue.drainTo(group);
+                for (PendingWrite write : group) {
+                    write.done.completeExceptionally(e);
+                }
+                return;
+            }
+            group.clear();
+        }
+    }
+
+    /**
+     * Fails the log after a group could not be written: the part of the
+     * group already written to the current segment is truncated, so that
+     * the segment ends with the last durable group, and the handler is told.
+     *
+     * @param e the failure of the group.
+     */
+    private void fail(final IOException e) {
+        try {
+            channel.truncate(durableSize);
+            channel.position(durableSize);
+            channel.force(false);
+        } catch (IOException truncateFailure) {
+            e.addSuppressed(truncateFailure);
+        }
+        failure = e;
+        failureHandler.accept(e);
+    }
+
+    /**
+     * Writes a group of changes, then forces them to disk at once.
+     * Each pending write is given the segment it ended up in.
+     *
+     * @param group the pending writes, in order.
+     * @throws IOException if the changes cannot be written.
+     */
+    private void writeGroup(final List<PendingWrite> group) throws IOException {
+        int size = 0;
+        for (PendingWrite write : group) {
+            if (write.bytes != null) {
+                size += write.bytes.length;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (PendingWrite write : group) {
+            if (write.roll) {
+                // An empty segment can start a snapshot as it is
+                if (channel.position() + buffer.position() > 0) {
+                    flush(buffer);
+                    rollSegment();
+                }
+            } else if (write.bytes != null) {
+                if (buffer.position() > 0
+                        && channel.position() + buffer.position() + write.bytes.length
+                        > SEGMENT_SIZE) {
+                    flush(buffer);
+                    rollSegment();
+                }
+                buffer.put(write.bytes);
+            }
+            write.segment = segmentIndex;
+        }
+        flush(buffer);
+        channel.force(false);
+        durableSize = channel.position();
+    }
+
+    /**
+     * Writes the content of a buffer to the current segment, and clears it.
+     *
+     * @param buffer the buffer.
+     * @throws IOException if the buffer cannot be written.
+     */
+    private void flush(final ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Closes the current segment and starts the next one.
+     * The next segment is created first, so that the current one is kept
+     * open if it cannot be.
+     *
+     * @throws IOException if the segments cannot be closed or created.
+     */
+    private void rollSegment() throws IOException {
+        FileChannel next = openSegment(segmentIndex + 1);
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            next.close();
+            throw e;
+        }
+        try {
+            channel.close();
+        } finally {
+            segmentIndex++;
+            channel = next;
+            durableSize = 0;
+        }
+    }
+
+    /**
+     * Opens the last segment for appending, or creates the first one after
+     * the snapshot.
+     *
+     * @param segments the existing segments after the snapshot, in order.
+     * @throws IOException if the segment cannot be opened.
+     */
+    private void openLastSegment(final List<Path> segments) throws IOException {
+        if (!segments.isEmpty()) {
+            segmentIndex = indexOf(segments.get(segments.size() - 1));
+        }
+        channel = openSegment(segmentIndex);
+        durableSize = channel.size();
+        channel.position(durableSize);
+    }
+
+    /**
+     * Opens a segment for writing, creating it if needed.
+     *
+     * @param index the index of the segment.
+     * @return the channel of the segment.
+     * @throws IOException if the segment cannot be opened.
+     */
+    private FileChannel openSegment(final long index) throws IOException {
+        return FileChannel.open(directory.resolve(segmentName(index)),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Restores the latest readable snapshot into the model.
+     *
+     * @param snapshots the snapshots, from the latest to the oldest.
+     * @param y         the model.
+     * @return the index of the first segment to replay after the snapshot.
+     */
+    private long restoreLatestSnapshot(final List<SnapshotFile> snapshots, final Y y) {
+        for (SnapshotFile snapshot : snapshots) {
+            try {
+                y.restore(snapshot.read());
+                restoredSnapshot = true;
+                return snapshot.getSegment();
+            } catch (IOException e) {
+                System.err.println("Ignoring an unreadable snapshot: " + e.getMessage());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Writes a snapshot, then deletes the segments and snapshots it replaces.
+     *
+     * @param state   the captured state of the model.
+     * @param segment the index of the first segment written after the capture.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    private void writeSnapshot(final ModelSnapshot state, final long segment)
+            throws IOException {
+        SnapshotFile snapshot = new SnapshotFile(directory, segment);
+        snapshot.write(state);
+        for (SnapshotFile older : SnapshotFile.list(directory)) {
+            if (older.getSegment() < segment) {
+                Files.deleteIfExists(older.getPath());
+            }
+        }
+        // The writer thread is past these segments, they are never reopened
+        for (Path old : listSegments(directory)) {
+            if (indexOf(old) < segment) {
+                Files.deleteIfExists(old);
+            }
+        }
+    }
+
+    /**
+     * Replays the changes of the segments into the model.
+     * Consecutive posted messages are fed to the model in bulk.
+     * A record torn by a crash at the end of the last segment is discarded,
+     * while an invalid record in an earlier segment stops the replay: the
+     * changes after it depend on the lost ones.
+     *
+     * @param segments the segments, in order.
+     * @param y        the model.
+     * @throws IOException if a segment cannot be read, or is corrupted before
+     *                     the last one.
+     */
+    private void replay(final List<Path> segments, final Y y) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        try {
+            for (int i = 0; i < segments.size(); i++) {
+                Path segment = segments.get(i);
+                try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)) {
+                    long valid = replaySegment(in, y, messages);
+                    if (valid < in.size() && i < segments.size() - 1) {
+                        throw new IOException("Corrupted record at offset " + valid + " of "
+                                + segment + ", the following changes were not replayed");
+                    }
+                    if (valid < in.size()) {
+                        System.err.println("Discarding a torn record at the end of " + segment);
+                        in.truncate(valid);
+                    }
+                }
+            }
+        } finally {
+            flushReplayed(y, messages);
+        }
+    }
+
+    /**
+     * Replays the changes of a segment into the model.
+     *
+     * @param in       the segment.
+     * @param y        the model.
+     * @param messages the posted messages not fed to the model yet.
+     * @return the size of the valid part of the segment.
+     * @throws IOException if the segment cannot be read.
+     */
+    private long replaySegment(final FileChannel in, final Y y, final List<Message> messages)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        long position = 0;
+        long size = in.size();
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(in, header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length <= 0 || position + HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(in, payload, position + HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            payload.flip();
+            apply(payload, y, messages);
+            replayedEvents++;
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    /**
+     * Applies a recorded change to the model.
+     *
+     * @param payload  the encoded change.
+     * @param y        the model.
+     * @param messages the posted messages not fed to the model yet.
+     */
+    private void apply(final ByteBuffer payload, final Y y, final List<Message> messages) {
+        byte type = payload.get();
+        if (type == MESSAGE_ADDED) {
+            long id = payload.getLong();
+            String publisherId = getString(payload);
+            String content = getString(payload);
+            long date = payload.getLong();
+            messages.add(new Message(id, publisherId, content, date));
+            if (messages.size() >= REPLAY_BATCH_SIZE) {
+                flushReplayed(y, messages);
+            }
+            return;
+        }
+        // Other changes may depend on the messages posted before them
+        flushReplayed(y, messages);
+        switch (type) {
+            case USER_CREATED:
+                y.createUser(getString(payload));
+                break;
+            case MESSAGE_DELETED:
+                y.deleteMessage(payload.getLong());
+                break;
+            case BOOKMARK_CHANGED:
+                String userId = getString(payload);
+                long messageId = payload.getLong();
+                y.setBookmarked(userId, messageId, payload.get() != 0);
+                break;
+            default:
+                System.err.println("Ignoring an unknown event of type " + type);
+        }
+    }
+
+    /**
+     * Feeds the replayed posted messages to the model.
+     *
+     * @param y        the model.
+     * @param messages the posted messages, cleared once fed.
+     */
+    private static void flushReplayed(final Y y, final List<Message> messages) {
+        if (!messages.isEmpty()) {
+            y.ingest(List.of(), new ArrayList<>(messages));
+            messages.clear();
+        }
+    }
+
+    /**
+     * Reads from a channel until a buffer is full.
+     *
+     * @param in       the channel.
+     * @param buffer   the buffer to fill.
+     * @param position the position in the channel to read from.
+     * @throws IOException if the channel cannot be read.
+     */
+    private static void readFully(final FileChannel in, final ByteBuffer buffer,
+                                  final long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer, offset);
+            if (read < 0) {
+                throw new IOException("Unexpected end of segment");
+            }
+            offset += read;
+        }
+    }
+
+    /**
+     * Decodes a nullable string.
+     *
+     * @param payload the encoded change.
+     * @return the string, or null.
+     */
+    private static String getString(final ByteBuffer payload) {
+        int length = payload.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Lists the segments of a directory.
+     *
+     * @param directory the directory of the segments.
+     * @return the segments, in order.
+     * @throws IOException if the directory cannot be listed.
+     */
+    private static List<Path> listSegments(final Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : dir) {
+                segments.add(segment);
+            }
+        }
+        // Indexes are zero-padded, so the name order is the segment order
+        segments.sort(null);
+        return segments;
+    }
+
+    /**
+     * Builds the file name of a segment.
+     *
+     * @param index the index of the segment.
+     * @return the file name.
+     */
+    private static String segmentName(final long index) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Parses the index of a segment from its file name.
+     *
+     * @param segment the segment.
+     * @return the index of the segment.
+     */
+    private static long indexOf(final Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Change waiting to be written, or marker waiting for the previous
+     * changes to be durable, possibly starting a new segment.
+     */
+    private static final class PendingWrite {
+        private final byte[] bytes;
+        private final boolean roll;
+        /**
+         * Completed with the segment of the write once it is durable.
+         */
+        private final CompletableFuture<Long> done = new CompletableFuture<>();
+        private long segment;
+
+        /**
+         * Constructs a pending write.
+         *
+         * @param bytes the encoded record, or null for a marker.
+         * @param roll  whether the marker starts a new segment.
+         */
+        PendingWrite(final byte[] bytes, final boolean roll) {
+            this.bytes = bytes;
+            this.roll = roll;
+        }
+    }
+
+    /**
+     * Encoder of a record of the log.
+     */
+    private static final class Record {
+        private ByteBuffer payload = ByteBuffer.allocate(64);
+
+        /**
+         * Starts a record.
+         *
+         * @param type the type of the change.
+         */
+        Record(final byte type) {
+            putByte(type);
+        }
+
+        /**
+         * Appends a byte to the record.
+         *
+         * @param value the byte.
+         */
+        void putByte(final byte value) {
+            ensureRemaining(1);
+            payload.put(value);
+        }
+
+        /**
+         * Appends a long to the record.
+         *
+         * @param value the long.
+         */
+        void putLong(final long value) {
+            ensureRemaining(Long.BYTES);
+            payload.putLong(value);
+        }
+
+        /**
+         * Appends a nullable string to the record.
+         *
+         * @param value the string, or null.
+         */
+        void putString(final String value) {
+            if (value == null) {
+                ensureRemaining(Integer.BYTES);
+                payload.putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensureRemaining(Integer.BYTES + bytes.length);
+            payload.putInt(bytes.length);
+            payload.put(bytes);
+        }
+
+        /**
+         * Grows the payload buffer if needed.
+         *
+         * @param needed the number of bytes about to be appended.
+         */
+        private void ensureRemaining(final int needed) {
+            if (payload.remaining() < needed) {
+                ByteBuffer grown = ByteBuffer.allocate(
+                        Math.max(payload.capacity() * 2, payload.position() + needed));
+                payload.flip();
+                grown.put(payload);
+                payload = grown;
+            }
+        }
+
+        /**
+         * Frames the record with its length and checksum.
+         *
+         * @return the bytes of the record, as written to the log.
+         */
+        byte[] toBytes() {
+            CRC32 crc = new CRC32();
+            crc.update(payload.array(), 0, payload.position());
+            ByteBuffer framed = ByteBuffer.allocate(HEADER_SIZE + payload.position());
+            framed.putInt(payload.position());
+            framed.putInt((int) crc.getValue());
+            framed.put(payload.array(), 0, payload.position());
+            return framed.array();
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package fr.univ_lyon1.info.m1.microblog.persistence;
+
+import fr.univ_lyon1.info.m1.microblog.model.Message;
+import fr.univ_lyon1.info.m1.microblog.model.ModelSnapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary snapshot of the model, taken at the start of a segment of the
+ * {@link EventLog}: replaying the segments from this one onwards on top of
+ * the snapshot rebuilds the model.
+ * The format is a flat sequence of fixed-size numbers and length-prefixed
+ * UTF-8 strings, read back through memory-mapped windows of the file.
+ */
+final class SnapshotFile {
+    private static final int MAGIC = 0x59534E50;
+    private static final int VERSION = 1;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+    /**
+     * Size of the write buffer and of the mapped windows, in bytes.
+     */
+    private static final int WINDOW_SIZE = 16 * 1024 * 1024;
+
+    private final Path path;
+    private final long segment;
+
+    /**
+     * Constructs the snapshot file of a segment.
+     *
+     * @param directory the directory of the log.
+     * @param segment   the index of the first segment to replay after the snapshot.
+     */
+    SnapshotFile(final Path directory, final long segment) {
+        this.path = directory.resolve(String.format("%s%020d%s", PREFIX, segment, SUFFIX));
+        this.segment = segment;
+    }
+
+    /**
+     * Retrieves the index of the first segment to replay after the snapshot.
+     *
+     * @return the segment index.
+     */
+    long getSegment() {
+        return segment;
+    }
+
+    /**
+     * Retrieves the path of the snapshot file.
+     *
+     * @return the path.
+     */
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Lists the snapshots of a directory.
+     *
+     * @param directory the directory of the log.
+     * @return the snapshots, from the latest to the oldest.
+     * @throws IOException if the directory cannot be listed.
+     */
+    static List<SnapshotFile> list(final Path directory) throws IOException {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(directory,
+                PREFIX + "*" + SUFFIX)) {
+            for (Path p : dir) {
+                paths.add(p);
+            }
+        }
+        // Indexes are zero-padded, so the name order is the segment order
+        paths.sort(null);
+        List<SnapshotFile> snapshots = new ArrayList<>(paths.size());
+        for (int i = paths.size() - 1; i >= 0; i--) {
+            String name = paths.get(i).getFileName().toString();
+            long index = Long.parseLong(name.substring(PREFIX.length(),
+                    name.length() - SUFFIX.length()));
+            snapshots.add(new SnapshotFile(directory, index));
+        }
+        return snapshots;
+    }
+
+    /**
+     * Writes a snapshot of the model. The file is written under a temporary
+     * name, forced to disk, then atomically renamed, so a crash never leaves
+     * a partial snapshot behind.
+     *
+     * @param snapshot the captured state of the model.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    void write(final ModelSnapshot snapshot) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Output output = new Output(out);
+            output.putInt(MAGIC);
+            output.putInt(VERSION);
+            output.putLong(segment);
+            output.putInt(snapshot.getUsers().size());
+            for (ModelSnapshot.UserState user : snapshot.getUsers()) {
+                output.putString(user.getId());
+                output.putInt(user.getBookmarkedIds().size());
+                for (long id : user.getBookmarkedIds()) {
+                    output.putLong(id);
+                }
+            }
+            output.putInt(snapshot.getMessages().size());
+            for (Message message : snapshot.getMessages()) {
+                output.putLong(message.getId());
+                output.putLong(message.getDate());
+                boolean scored = message.hasStaticScore();
+                output.putInt(scored ? 1 : 0);
+                output.putInt(scored ? message.getStaticScore() : 0);
+                output.putString(message.getPublisherId());
+                output.putString(message.getContent());
+            }
+            output.flush();
+            out.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads the snapshot back.
+     *
+     * @return the state of the model.
+     * @throws IOException if the snapshot cannot be read or is invalid.
+     */
+    ModelSnapshot read() throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            Input input = new Input(in);
+            if (input.getInt() != MAGIC || input.getInt() != VERSION
+                    || input.getLong() != segment) {
+                throw new IOException("Invalid snapshot " + path);
+            }
+            int nbUsers = input.getInt();
+            List<ModelSnapshot.UserState> users = new ArrayList<>(nbUsers);
+            for (int i = 0; i < nbUsers; i++) {
+                String id = input.getString();
+                int nbBookmarks = input.getInt();
+                List<Long> bookmarks = new ArrayList<>(nbBookmarks);
+                for (int j = 0; j < nbBookmarks; j++) {
+                    bookmarks.add(input.getLong());
+                }
+                users.add(new ModelSnapshot.UserState(id, bookmarks));
+            }
+            int nbMessages = input.getInt();
+            List<Message> messages = new ArrayList<>(nbMessages);
+            for (int i = 0; i < nbMessages; i++) {
+                long id = input.getLong();
+                long date = input.getLong();
+                boolean scored = input.getInt() != 0;
+                int staticScore = input.getInt();
+                String publisherId = input.getString();
+                String content = input.getString();
+                Message message = new Message(id, publisherId, content, date);
+                if (scored) {
+                    message.setStaticScore(staticScore);
+                }
+                messages.add(message);
+            }
+            return new ModelSnapshot(users, messages);
+        }
+    }
+
+    /**
+     * Buffered writer of the snapshot.
+     */
+    private static final class Output {
+        private final FileChannel out;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WINDOW_SIZE);
+
+        /**
+         * Constructs the writer.
+         *
+         * @param out the snapshot file.
+         */
+        Output(final FileChannel out) {
+            this.out = out;
+        }
+
+        /**
+         * Writes an int.
+         *
+         * @param value the int.
+         * @throws IOException if the snapshot cannot be written.
+         */
+        void putInt(final int value) throws IOException {
+            ensureRemaining(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        /**
+         * Writes a long.
+         *
+         * @param value the long.
+         * @throws IOException if the snapshot cannot be written.
+         */
+        void putLong(final long value) throws IOException {
+            ensureRemaining(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        /**
+         * Writes a nullable string.
+         *
+         * @param value the string, or null.
+         * @throws IOException if the snapshot cannot be written.
+         */
+        void putString(final String value) throws IOException {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            if (bytes.length > buffer.capacity()) {
+                flush();
+                ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+                while (wrapped.hasRemaining()) {
+                    out.write(wrapped);
+                }
+                return;
+            }
+            ensureRemaining(bytes.length);
+            buffer.put(bytes);
+        }
+
+        /**
+         * Makes room in the buffer, writing it out if needed.
+         *
+         * @param needed the number of bytes about to be written.
+         * @throws IOException if the snapshot cannot be written.
+         */
+        private void ensureRemaining(final int needed) throws IOException {
+            if (buffer.remaining() < needed) {
+                flush();
+            }
+        }
+
+        /**
+         * Writes the buffered bytes out.
+         *
+         * @throws IOException if the snapshot cannot be written.
+         */
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reader of the snapshot through memory-mapped windows, so that files
+     * larger than a single mapping can be read.
+     */
+    private static final class Input {
+        private final FileChannel in;
+        private final long size;
+        private long windowStart = 0;
+        private MappedByteBuffer window;
+
+        /**
+         * Constructs the reader.
+         *
+         * @param in the snapshot file.
+         * @throws IOException if the file cannot be mapped.
+         */
+        Input(final FileChannel in) throws IOException {
+            this.in = in;
+            this.size = in.size();
+            this.window = in.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(WINDOW_SIZE, size));
+        }
+
+        /**
+         * Reads an int.
+         *
+         * @return the int.
+         * @throws IOException if the snapshot is truncated.
+         */
+        int getInt() throws IOException {
+            ensureRemaining(Integer.BYTES);
+            return window.getInt();
+        }
+
+        /**
+         * Reads a long.
+         *
+         * @return the long.
+         * @throws IOException if the snapshot is truncated.
+         */
+        long getLong() throws IOException {
+            ensureRemaining(Long.BYTES);
+            return window.getLong();
+        }
+
+        /**
+         * Reads a nullable string.
+         *
+         * @return the string, or null.
+         * @throws IOException if the snapshot is truncated.
+         */
+        String getString() throws IOException {
+            int length = getInt();
+            if (length < 0) {
+                return null;
+            }
+            ensureRemaining(length);
+            byte[] bytes = new byte[length];
+            window.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Maps the next window of the file if the current one does not hold
+         * the next bytes.
+         *
+         * @param needed the number of bytes about to be read.
+         * @throws IOException if the snapshot is truncated.
+         */
+        private void ensureRemaining(final int needed) throws IOException {
+            if (window.remaining() >= needed) {
+                return;
+            }
+            windowStart += window.position();
+            if (windowStart + needed > size) {
+                throw new IOException("Truncated snapshot");
+            }
+            window = in.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                    Math.min(Math.max(WINDOW_SIZE, needed), size - windowStart));
+        }
+    }
+}
@@ -1,25 +1,34 @@
 package fr.univ_lyon1.info.m1.microblog.view;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
-import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import fr.univ_lyon1.info.m1.microblog.controller.MessageController;
 import fr.univ_lyon1.info.m1.microblog.controller.UserController;
 import fr.univ_lyon1.info.m1.microblog.dto.MessageDTO;
 import fr.univ_lyon1.info.m1.microblog.dto.MessageDataDTO;
 import fr.univ_lyon1.info.m1.microblog.model.Y;
+import fr.univ_lyon1.info.m1.microblog.observer.ChangeSet;
 import fr.univ_lyon1.info.m1.microblog.observer.Observer;
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
 import javafx.geometry.Pos;
-import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
-import javafx.scene.control.ScrollPane;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
 import javafx.scene.control.TextArea;
 import javafx.scene.input.KeyCode;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.stage.Stage;
@@ -28,9 +37,33 @@ import javafx.stage.Stage;
  * Main class of the View (GUI) of the application.
  */
 public class JfxView implements Observer {
+    /**
+     * Maximum number of messages displayed for each user. Only the visible
+     * rows of a timeline are rendered, so this only bounds the data copied
+     * from the model on each refresh.
+     */
+    static final int TIMELINE_SIZE = 10_000;
+
     private final HBox users;
+    /**
+     * Timeline of each user pane, indexed by user ID.
+     */
+    private final Map<String, ListView<MessageDataDTO>> timelines = new HashMap<>();
+    /**
+     * Number of the refresh whose ranking is displayed, indexed by user ID.
+     * Refreshes complete in the background, possibly out of order.
+     */
+    private final Map<String, Long> shownRefreshes = new HashMap<>();
+    /**
+     * Number of refreshes started so far, only used on the JavaFX thread.
+     */
+    private long refreshCount = 0;
     private final MessageController messageController;
     private final UserController userController;
+    /**
+     * Changes received since the last refresh, or null if no refresh is scheduled.
+     */
+    private ChangeSet.Builder pendingChanges = null;
 
     /**
      * Main view of the application.
@@ -52,6 +85,7 @@ public class JfxView implements Observer {
         // root.getChildren().add(search);
 
         users = new HBox(10);
+        VBox.setVgrow(users, Priority.ALWAYS);
         root.getChildren().add(users);
         // Everything's ready: add it to the scene and display it
         final Scene scene = new Scene(root, width, height);
@@ -61,37 +95,86 @@ public class JfxView implements Observer {
 
     /**
      * Updates the user interface to display messages.
+     * Updates are coalesced: the changes received until the next JavaFX
+     * pulse are aggregated and applied at once, at most once per frame.
+     *
+     * @param changes what changed in the model since the last update.
      */
-    public void update() {
-        Collection<String> userIds = this.userController.getUserIds();
-        if (userIds.size() > this.users.getChildren().size()) {
-            createUsersPanes();
-        }
-        for (String uid: userIds) {
-            sortMessages(uid);
+    public void update(final ChangeSet changes) {
+        synchronized (this) {
+            if (pendingChanges != null) {
+                pendingChanges.add(changes);
+                return;
+            }
+            pendingChanges = new ChangeSet.Builder().add(changes);
         }
+        Platform.runLater(this::applyPendingChanges);
+    }
 
+    /**
+     * Applies the changes received since the last refresh.
+     * Panes are only created for new users. The users the changes may affect
+     * are scored again in the background; the model then reports those whose
+     * displayed timeline actually changed, and only their timelines, and
+     * those of the new panes, are refreshed.
+     */
+    private void applyPendingChanges() {
+        ChangeSet changes;
+        synchronized (this) {
+            changes = pendingChanges.build();
+            pendingChanges = null;
+        }
+        Set<String> toShow = new HashSet<>(changes.getRescoredTimelines());
+        if (changes.isEverything() || !changes.getAddedUserIds().isEmpty()) {
+            toShow.addAll(createUsersPanes());
+        }
+        Collection<String> toRescore;
+        if (changes.affectsAllTimelines()) {
+            toRescore = this.userController.getUserIds();
+        } else {
+            toRescore = new ArrayList<>(changes.getAddedUserIds());
+            toRescore.addAll(changes.getChangedTimelines());
+        }
+        if (!toRescore.isEmpty()) {
+            this.userController.rescoreMessagesAsync(toRescore).exceptionally(error -> {
+                System.err.println("Failed to score messages: " + error.getMessage());
+                return null;
+            });
+        }
+        if (!toShow.isEmpty()) {
+            refreshMessages(toShow);
+        }
     }
 
     /**
-     * Creates user panels.
+     * Creates the panels of the users that do not have one yet.
+     * The timeline of each user is a virtualized list: only the visible
+     * messages get a widget, and widgets are reused while scrolling.
+     *
+     * @return the IDs of the users whose panel was created.
      */
-    public void createUsersPanes() {
-        users.getChildren().clear();
+    public List<String> createUsersPanes() {
+        List<String> created = new ArrayList<>();
         for (String uid : userController.getUserIds()) {
-            ScrollPane p = new ScrollPane();
+            if (timelines.containsKey(uid)) {
+                continue;
+            }
+            created.add(uid);
             VBox userBox = new VBox();
-            p.setMinWidth(300);
-            p.setContent(userBox);
-            users.getChildren().add(p);
+            userBox.setMinWidth(300);
+            users.getChildren().add(userBox);
+
+            ListView<MessageDataDTO> userMsgList = new ListView<>();
+            userMsgList.setCellFactory(list -> new MessageCell(uid));
+            VBox.setVgrow(userMsgList, Priority.ALWAYS);
+            timelines.put(uid, userMsgList);
 
-            VBox userMsgBox = new VBox();
-            
             Label userID = new Label(uid);
 
             Pane textBox = createInputWidget(uid);
-            userBox.getChildren().addAll(userID, userMsgBox, textBox);
+            userBox.getChildren().addAll(userID, userMsgList, textBox);
         }
+        return created;
     }
 
     /**
@@ -101,7 +184,7 @@ public class JfxView implements Observer {
      * @param msgId  The ID of the message.
      * @return true if the message was successfully bookmarked, false otherwise.
      */
-    public boolean bookmarkMessage(final String userId, final String msgId) {
+    public boolean bookmarkMessage(final String userId, final long msgId) {
         return this.userController.bookMarkMessage(userId, msgId);
     }
 
@@ -112,44 +195,81 @@ public class JfxView implements Observer {
      * @param msgId  The ID of the message.
      * @return true if the message was successfully unbookmarked, false otherwise.
      */
-    public boolean unBookmarkMessage(final String userId, final String msgId) {
+    public boolean unBookmarkMessage(final String userId, final long msgId) {
         return this.userController.unBookMarkMessage(userId, msgId);
     }
 
     /**
-     * Reloads the messages for a specific user.
+     * Displays a new ranking of the messages of a specific user.
+     * Only the rows of the messages that were added, removed, moved or whose
+     * data changed are touched; the other rows are kept as they are.
+     * Rankings fetched by a refresh older than the displayed one are ignored.
      *
-     * @param dbUserId The ID of the user whose messages should be reloaded.
+     * @param dbUserId The ID of the user whose messages should be displayed.
+     * @param refresh  The number of the refresh that fetched the ranking.
+     * @param ranking  The best ranked messages of the user.
      */
-    void reloadMessages(final String dbUserId) {
-    Collection<MessageDataDTO> messagesData = this.userController.getMessagesDataForUser(dbUserId);
-    if (messagesData == null) {
-        return;
+    private void showMessages(final String dbUserId, final long refresh,
+                              final List<MessageDataDTO> ranking) {
+        ListView<MessageDataDTO> userMsgList = timelines.get(dbUserId);
+        if (userMsgList == null || shownRefreshes.getOrDefault(dbUserId, -1L) > refresh) {
+            return;
+        }
+        shownRefreshes.put(dbUserId, refresh);
+        applyChanges(userMsgList.getItems(), ranking);
     }
-    for (Node u : users.getChildren()) {
-        ScrollPane scroll = (ScrollPane) u;
-        VBox userBox = (VBox) scroll.getContent();
-        Label userID = (Label) userBox.getChildren().get(0);
-        if (userID.getText().equals(dbUserId)) {
-            VBox userMsg = (VBox) userBox.getChildren().get(1);
-            userMsg.getChildren().clear();
-            for (MessageDataDTO msgData : messagesData) {
-                VBox messageWidget = createMessageWidget(msgData);
-                
-                HBox buttonWidget = new HBox();
-                Button bookButton = createBookButton(dbUserId, msgData);
-                Button deleteButton = createDeleteButton(dbUserId, msgData);
-                buttonWidget.getChildren().add(bookButton);
-                buttonWidget.getChildren().add(deleteButton);
-                buttonWidget.setAlignment(Pos.BASELINE_RIGHT);
 
-                messageWidget.getChildren().add(0, buttonWidget); 
-                userMsg.getChildren().add(messageWidget);
+    /**
+     * Turns the displayed rows of a timeline into a new ranking with minimal
+     * insertions and removals.
+     * The rows that are not gone and whose data did not change keep their
+     * relative order in the new ranking, so once the others are removed, the
+     * new ranking is obtained by inserting the missing rows at their place.
+     * When most rows would be inserted, e.g. on the first display, the rows
+     * are replaced at once instead.
+     *
+     * @param rows    The displayed rows, best ranked first.
+     * @param ranking The new ranking of the timeline, best ranked first.
+     */
+    static void applyChanges(final ObservableList<MessageDataDTO> rows,
+                             final List<MessageDataDTO> ranking) {
+        Map<Long, MessageDataDTO> rankedById = new HashMap<>(ranking.size() * 2);
+        for (MessageDataDTO msgData : ranking) {
+            rankedById.put(msgData.getId(), msgData);
+        }
+        int kept = 0;
+        for (MessageDataDTO row : rows) {
+            if (!isStale(row, rankedById)) {
+                kept++;
+            }
+        }
+        if (kept < ranking.size() / 2) {
+            rows.setAll(ranking);
+            return;
+        }
+        rows.removeIf(row -> isStale(row, rankedById));
+        for (int i = 0; i < ranking.size(); i++) {
+            if (i >= rows.size() || rows.get(i).getId() != ranking.get(i).getId()) {
+                rows.add(i, ranking.get(i));
             }
-            break;
         }
     }
-}
+
+    /**
+     * Tells whether a displayed row is gone from a new ranking, or shows
+     * outdated data.
+     *
+     * @param row        The displayed row.
+     * @param rankedById The new ranking, indexed by message ID.
+     * @return true if the row must be removed.
+     */
+    private static boolean isStale(final MessageDataDTO row,
+                                   final Map<Long, MessageDataDTO> rankedById) {
+        MessageDataDTO ranked = rankedById.get(row.getId());
+        return ranked == null
+                || ranked.getScore() != row.getScore()
+                || ranked.isBookmarked() != row.isBookmarked();
+    }
 
     static final String MSG_STYLE = "-fx-background-color: white; "
             + "-fx-border-color: black; -fx-border-width: 1;"
@@ -158,87 +278,89 @@ public class JfxView implements Observer {
             + "-fx-padding: 8px; "
             + "-fx-margin: 5px; ";
 
-
     /**
-     * Creates a message widget.
-     *
-     * @param msgData The data of the message to display.
-     * @return A VBox containing the message widget.
+     * Row of a user's timeline, displaying a message.
+     * The widgets are created once per visible row, then filled with the
+     * message shown by the row each time the list scrolls or changes. The
+     * message is loaded in the background with the ranking, so filling a
+     * row neither reads the disk nor decodes the content.
      */
-    private VBox createMessageWidget(
-            final MessageDataDTO msgData) {
-        VBox msgBox = new VBox();
-
-        try {
-            MessageDTO msg = this.messageController.getMessageById(msgData.getId());
-            final Label label = new Label(msg.getContent());
-            msgBox.getChildren().add(label);
+    private final class MessageCell extends ListCell<MessageDataDTO> {
+        private final String userId;
+        private final VBox msgBox = new VBox();
+        private final Button bookButton = new Button();
+        private final Button deleteButton = new Button("x");
+        private final Label content = new Label();
+        private final Label date = new Label();
+        private final Label score = new Label();
 
-            Date messageDate = msg.getDate();
-            SimpleDateFormat dateformat = new SimpleDateFormat("dd/MM/yyyy HH:mm:ss");
-            String formatedDate = dateformat.format(messageDate);
-            final Label date = new Label(formatedDate);
-            msgBox.getChildren().add(date);
-
-            final Label score = new Label("Score: " + msgData.getScore());
+        /**
+         * Creates the widgets of a row.
+         *
+         * @param userId The ID of the user whose timeline contains the row.
+         */
+        MessageCell(final String userId) {
+            this.userId = userId;
+            HBox buttonWidget = new HBox(bookButton, deleteButton);
+            buttonWidget.setAlignment(Pos.BASELINE_RIGHT);
+            content.setWrapText(true);
             score.setTextFill(Color.LIGHTGRAY);
-            msgBox.getChildren().add(score);
-
+            msgBox.getChildren().addAll(buttonWidget, content, date, score);
             msgBox.setStyle(MSG_STYLE);
-        } catch (Exception e) {
-            final Label label = new Label("Can't load this message");
-            msgBox.getChildren().add(label);
-        }
-        return msgBox;
-    }
 
-    /**
-     * Creates a bookmark button for a message.
-     *
-     * @param userId  The ID of the user.
-     * @param msgData The data of the message.
-     * @return A button to bookmark or unbookmark the message.
-     */
-    private Button createBookButton(final String userId, final MessageDataDTO msgData) {
-        String bookmarkText;
-        boolean bookmarked = msgData.isBookmarked();
-        String msgId = msgData.getId();
-        if (bookmarked) {
-            bookmarkText = "⭐";
-        } else {
-            bookmarkText = "Click to bookmark";
+            bookButton.setOnAction(e -> toggleBookmark(getItem()));
+            deleteButton.setOnAction(e -> deleteMessage(getItem()));
         }
-        Button bookButton = new Button(bookmarkText);
-        bookButton.setOnAction(e -> {
-            if (bookButton.getText().equals("Click to bookmark")) {
-                if (bookmarkMessage(userId, msgId)) {
-                    bookButton.setText("⭐");
-                }
+
+        @Override
+        protected void updateItem(final MessageDataDTO msgData, final boolean empty) {
+            super.updateItem(msgData, empty);
+            if (empty || msgData == null) {
+                setGraphic(null);
+                return;
+            }
+            // Loaded with the ranking: rows are filled without reading the model
+            MessageDTO msg = msgData.getMessage();
+            if (msg != null) {
+                content.setText(msg.getContent());
+                date.setText(msg.getFormattedDate());
             } else {
-                if (unBookmarkMessage(userId, msgId)) {
-                    bookButton.setText("Click to bookmark");
+                content.setText("Can't load this message");
+                date.setText("");
+            }
+            score.setText("Score: " + msgData.getScore());
+            bookButton.setText(msgData.isBookmarked() ? "⭐" : "Click to bookmark");
+            setGraphic(msgBox);
+        }
 
-                }
+        /**
+         * Bookmarks the message of the row, or unbookmarks it if it is bookmarked.
+         *
+         * @param msgData The data of the message of the row.
+         */
+        private void toggleBookmark(final MessageDataDTO msgData) {
+            if (msgData == null) {
+                return;
             }
-            sortMessages(userId);
-        });
-        return bookButton;
-    }
+            // The model notifies the view, which refreshes the timeline
+            if (msgData.isBookmarked()) {
+                unBookmarkMessage(userId, msgData.getId());
+            } else {
+                bookmarkMessage(userId, msgData.getId());
+            }
+        }
 
-    /**
-     * Creates a delete button for a message.
-     *
-     * @param userId  The ID of the user.
-     * @return A button to delete the message.
-     */
-    private Button createDeleteButton(final String userId, final MessageDataDTO msgData) {
-        String msgId = msgData.getId();
-        Button deleteButton = new Button("x");
-        deleteButton.setOnAction(e -> {
-            this.messageController.deleteMessageById(msgId);
-            sortMessages(userId);
-        });
-        return deleteButton;
+        /**
+         * Deletes the message of the row.
+         *
+         * @param msgData The data of the message of the row.
+         */
+        private void deleteMessage(final MessageDataDTO msgData) {
+            if (msgData == null) {
+                return;
+            }
+            messageController.deleteMessageById(msgData.getId());
+        }
     }
 
     /**
@@ -287,18 +409,46 @@ public class JfxView implements Observer {
     }
 
     /**
-     * Sorts the messages for a user.
+     * Fetches the best ranked messages of some users in the background, then
+     * displays them on the JavaFX thread.
+     * The messages are loaded in the background too, so that rows only
+     * display the data they are given.
      *
-     * @param uid The ID of the user whose messages should be sorted.
+     * @param userIds The IDs of the users whose messages should be refreshed.
      */
-    private void sortMessages(final String uid) {
-            Collection<MessageDataDTO> userMsg = this.userController.getMessagesDataForUser(uid);
-            if (userMsg == null) {
-                return;
+    private void refreshMessages(final Collection<String> userIds) {
+        long refresh = ++refreshCount;
+        CompletableFuture.supplyAsync(() -> {
+            Map<String, List<MessageDataDTO>> rankings = new HashMap<>();
+            // Timelines mostly show the same messages: each one is loaded once
+            Map<Long, MessageDTO> loaded = new HashMap<>();
+            for (String uid : userIds) {
+                List<MessageDataDTO> ranking =
+                        this.userController.getTopMessagesDataForUser(uid, TIMELINE_SIZE);
+                if (ranking != null) {
+                    for (MessageDataDTO msgData : ranking) {
+                        msgData.setMessage(loaded.computeIfAbsent(msgData.getId(),
+                                this::loadMessage));
+                    }
+                    rankings.put(uid, ranking);
+                }
             }
-            this.messageController.computeScores(userMsg);
-            this.userController.updateUserMsg(uid, userMsg);
-            this.userController.sortMessages(uid);
-            reloadMessages(uid);
+            return rankings;
+        }).thenAccept(rankings -> Platform.runLater(() ->
+                rankings.forEach((uid, ranking) -> showMessages(uid, refresh, ranking))));
+    }
+
+    /**
+     * Loads a message to be displayed.
+     *
+     * @param msgId The ID of the message.
+     * @return The message, or null if it cannot be loaded.
+     */
+    private MessageDTO loadMessage(final long msgId) {
+        try {
+            return messageController.getMessageById(msgId);
+        } catch (Exception e) {
+            return null;
+        }
     }
 }
@@ -0,0 +1,165 @@
+package fr.univ_lyon1.info.m1.microblog.config;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import fr.univ_lyon1.info.m1.microblog.model.IngestReport;
+import fr.univ_lyon1.info.m1.microblog.model.Message;
+import fr.univ_lyon1.info.m1.microblog.model.User;
+import fr.univ_lyon1.info.m1.microblog.model.Y;
+import org.json.simple.parser.ParseException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *  Test the streamed loading of the seed files.
+ */
+public class InitialLoadConfigTest {
+    @Test
+    void testMessagesBeforeUsers(@TempDir final Path directory) throws IOException, ParseException {
+        // Given
+        Y y = new Y();
+        Path file = directory.resolve("seed.json");
+        Files.writeString(file, "{\"messages\": ["
+                + "{\"user\": \"foo\", \"content\": \"Hello, world!\"},"
+                + "{\"content\": \"Good bye, world!\", \"user\": \"bar\"}],"
+                + " \"users\": [\"foo\", \"bar\"]}");
+
+        // When
+        new InitialLoadConfig(y).loadConfiguration(file.toString());
+
+        // Then
+        assertThat(y.getUsers().stream().map(User::getId).collect(Collectors.toList()),
+                contains("foo", "bar"));
+        List<Message> messages = loggedMessages(y);
+        assertThat(messages.stream().map(Message::getPublisherId)
+                .collect(Collectors.toList()), contains("foo", "bar"));
+        assertThat(contentsOf(messages), contains("Hello, world!", "Good bye, world!"));
+    }
+
+    @Test
+    void testSeveralBatches(@TempDir final Path directory) throws IOException, ParseException {
+        // Given
+        Y y = new Y();
+        int nbMessages = 2 * InitialLoadConfig.BATCH_SIZE + 1;
+        StringBuilder json = new StringBuilder("{\"users\": [\"foo\"], \"messages\": [");
+        List<String> contents = new ArrayList<>();
+        for (int i = 0; i < nbMessages; i++) {
+            contents.add("Message " + i);
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"user\": \"foo\", \"content\": \"Message ").append(i).append("\"}");
+        }
+        Path file = directory.resolve("seed.json");
+        Files.writeString(file, json.append("]}"));
+
+        // When
+        IngestReport report = new InitialLoadConfig(y).loadConfiguration(file.toString());
+
+        // Then
+        assertThat(report.getNbUsers(), is(1));
+        assertThat(report.getNbMessages(), is(nbMessages));
+        assertThat(contentsOf(loggedMessages(y)), is(contents));
+    }
+
+    @Test
+    void testIdsFollowFileOrder(@TempDir final Path directory) throws IOException, ParseException {
+        // Given
+        Y y = new Y();
+        int nbMessages = 3 * InitialLoadConfig.BATCH_SIZE + 1;
+        StringBuilder json = new StringBuilder("{\"users\": [\"foo\"], \"messages\": [");
+        for (int i = 0; i < nbMessages; i++) {
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"user\": \"foo\", \"content\": \"Message ").append(i).append("\"}");
+        }
+        Path file = directory.resolve("seed.json");
+        Files.writeString(file, json.append("]}"));
+
+        // When
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            new InitialLoadConfig(y, executor).loadConfiguration(file.toString());
+        } finally {
+            executor.shutdown();
+        }
+
+        // Then
+        List<Message> messages = loggedMessages(y);
+        assertThat(messages, hasSize(nbMessages));
+        for (int i = 1; i < nbMessages; i++) {
+            assertThat(messages.get(i).getId(), greaterThan(messages.get(i - 1).getId()));
+        }
+    }
+
+    @Test
+    void testDirectoryIsLoadedInNameOrder(@TempDir final Path directory)
+            throws IOException, ParseException {
+        // Given
+        Y y = new Y();
+        Files.writeString(directory.resolve("b.json"), "{\"messages\": ["
+                + "{\"user\": \"foo\", \"content\": \"Third\"}]}");
+        Files.writeString(directory.resolve("a.json"), "{\"users\": [\"foo\"], \"messages\": ["
+                + "{\"user\": \"foo\", \"content\": \"First\"},"
+                + "{\"user\": \"foo\", \"content\": \"Second\"}]}");
+        Files.writeString(directory.resolve("notes.txt"), "Not a seed file");
+
+        // When
+        new InitialLoadConfig(y).loadConfiguration(directory.toString());
+
+        // Then
+        assertThat(contentsOf(loggedMessages(y)), contains("First", "Second", "Third"));
+    }
+
+    @Test
+    void testMissingFileIsReported(@TempDir final Path directory) {
+        // Given
+        Y y = new Y();
+        Path file = directory.resolve("missing.json");
+
+        // When / Then
+        assertThrows(NoSuchFileException.class,
+                () -> new InitialLoadConfig(y).loadConfiguration(file.toString()));
+    }
+
+    @Test
+    void testInvalidFileIsReported(@TempDir final Path directory) throws IOException {
+        // Given
+        Y y = new Y();
+        Path file = directory.resolve("seed.json");
+        Files.writeString(file, "{\"users\": [\"foo\"");
+
+        // When / Then
+        assertThrows(ParseException.class,
+                () -> new InitialLoadConfig(y).loadConfiguration(file.toString()));
+    }
+
+    /**
+     * Retrieves the messages of a model in posting order.
+     *
+     * @param y the model.
+     * @return the messages of its log.
+     */
+    private static List<Message> loggedMessages(final Y y) {
+        return y.capture(() -> { }).getMessages();
+    }
+
+    /**
+     * Retrieves the contents of messages.
+     *
+     * @param messages the messages.
+     * @return their contents, in the same order.
+     */
+    private static List<String> contentsOf(final List<Message> messages) {
+        return messages.stream().map(Message::getContent).collect(Collectors.toList());
+    }
+}
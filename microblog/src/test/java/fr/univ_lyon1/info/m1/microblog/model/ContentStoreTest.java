@@ -0,0 +1,41 @@
+package fr.univ_lyon1.info.m1.microblog.model;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *  Test the off-heap storage of message contents.
+ */
+public class ContentStoreTest {
+    @Test
+    void testContentIsStoredOffHeap() {
+        // Given
+        String content = "Ça va ? " + "x".repeat(ContentStore.CHUNK_SIZE / 4);
+        long size = ContentStore.size();
+
+        // When
+        Message m = new Message(null, content);
+
+        // Then
+        assertThat(m.getContent(), is(content));
+        assertThat(ContentStore.size(), greaterThan(size));
+        assertThat(new Message(null, null).getContent(), is(nullValue()));
+    }
+
+    @Test
+    void testArchivedContentIsNotStoredAgain() {
+        // Given
+        Message m = new Message(null, "Hello, world!");
+        long size = ContentStore.size();
+
+        // When
+        Message loaded = Message.archived(m.getId(), null, m.getContent(), m.getDate());
+
+        // Then
+        assertThat(loaded.getContent(), is("Hello, world!"));
+        assertThat(loaded.getTerms(), is(m.getTerms()));
+        assertThat(ContentStore.size(), is(size));
+    }
+}
@@ -0,0 +1,88 @@
+package fr.univ_lyon1.info.m1.microblog.model;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *  Test the materialized rankings of messages.
+ */
+public class RankingTest {
+    @Test
+    void testTopMessages() {
+        // Given
+        Ranking ranking = new Ranking();
+        int[] scores = {5, 0, 3, 9, 3, 7};
+        for (int i = 0; i < scores.length; i++) {
+            ranking.update(i, false, scores[i]);
+        }
+
+        // When
+        ranking.update(2, true, scores[2]);
+
+        // Then
+        Ranking empty = new Ranking();
+        assertThat(ids(Ranking.merge(ranking, empty, User.VISIBILITY_THRESHOLD, 4)),
+                contains(2L, 3L, 5L, 0L));
+        assertThat(ids(Ranking.merge(ranking, empty, User.VISIBILITY_THRESHOLD, 10)),
+                contains(2L, 3L, 5L, 0L, 4L));
+        assertThat(ids(Ranking.merge(empty, ranking, -1, 10)),
+                contains(2L, 3L, 5L, 0L, 4L, 1L));
+    }
+
+    @Test
+    void testMergedRankings() {
+        // Given
+        Ranking shared = new Ranking();
+        Ranking personal = new Ranking();
+        int[] scores = {5, 0, 3, 9, 3, 7};
+        for (int i = 0; i < scores.length; i++) {
+            shared.update(i, false, scores[i]);
+        }
+
+        // When
+        personal.update(2, true, 4);
+        personal.update(1, false, 8);
+        List<Ranking.Entry> top = Ranking.merge(personal, shared, User.VISIBILITY_THRESHOLD, 10);
+
+        // Then
+        assertThat(ids(top), contains(2L, 3L, 1L, 5L, 0L, 4L));
+        assertThat(top.get(0).isBookmarked(), is(true));
+        assertThat(top.get(2).getScore(), is(8));
+    }
+
+    @Test
+    void testRankedMessagesOfUser() {
+        // Given
+        Y y = new Y();
+        y.createUser("foo");
+        Message m1 = new Message("foo", "Hello, world!");
+        Message m2 = new Message("foo", "Hello, you!");
+        Message m3 = new Message("foo", "What is this message ?");
+        y.add(m1);
+        y.add(m2);
+        y.add(m3);
+        y.setBookmarked("foo", m1.getId(), true);
+
+        // When
+        y.rescoreAsync(y.getUsers()).join();
+
+        // Then
+        User foo = y.getUserById("foo");
+        assertThat(ids(y.getRankedMessages(foo, Integer.MIN_VALUE, Integer.MAX_VALUE)),
+                contains(m1.getId(), m3.getId(), m2.getId()));
+        assertThat(ids(y.getRankedMessages(foo, Integer.MIN_VALUE, 2)),
+                contains(m1.getId(), m3.getId()));
+        // The threshold also applies to bookmarked messages
+        assertThat(ids(y.getRankedMessages(foo, User.VISIBILITY_THRESHOLD, 10)),
+                contains(m3.getId()));
+    }
+
+    private static List<Long> ids(final List<Ranking.Entry> entries) {
+        return entries.stream().map(Ranking.Entry::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,35 @@
+package fr.univ_lyon1.info.m1.microblog.model;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ *  Test the splitting of message contents into terms.
+ */
+public class TokenizerTest {
+    @Test
+    void testDistinctLowerCasedWords() {
+        // Given
+        Message m = new Message(null, "Hello hello, world world world.");
+
+        // When
+        int[] terms = m.getTerms();
+
+        // Then
+        assertThat(terms.length, is(2));
+        assertThat(terms[0], lessThan(terms[1]));
+        assertThat(TermDictionary.termOf(terms[0]), is(oneOf("hello", "world")));
+        assertThat(TermDictionary.termOf(terms[1]), is(oneOf("hello", "world")));
+        assertThat(TermDictionary.termOf(TermDictionary.idOf("world")), is("world"));
+    }
+
+    @Test
+    void testNoWords() {
+        assertThat(Tokenizer.tokenize("").length, is(0));
+        assertThat(Tokenizer.tokenize("42 !? ...").length, is(0));
+        assertThat(new Message(null, "... hi").getTerms(),
+                is(new int[] {TermDictionary.idOf("hi")}));
+    }
+}
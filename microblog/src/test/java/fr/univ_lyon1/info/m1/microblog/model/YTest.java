@@ -0,0 +1,408 @@
+package fr.univ_lyon1.info.m1.microblog.model;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import fr.univ_lyon1.info.m1.microblog.observer.ChangeSet;
+import org.junit.jupiter.api.Test;
+
+/**
+ *  Test the users and messages registries of the model.
+ */
+public class YTest {
+    @Test
+    void testUsersKeepCreationOrder() {
+        // Given
+        Y y = new Y();
+
+        // When
+        y.createUser("foo");
+        y.createUser("bar");
+        y.createUser("foo");
+
+        // Then
+        assertThat(y.getUsers().stream().map(User::getId).collect(Collectors.toList()),
+                contains("foo", "bar"));
+        assertThat(y.getUserById("bar").getId(), is("bar"));
+        assertThat(y.getUserById("baz"), is(nullValue()));
+    }
+
+    @Test
+    void testDeleteMessage() {
+        // Given
+        Y y = new Y();
+        y.createUser("foo");
+        Message m = new Message("foo", "Hello, world!");
+        y.add(m);
+
+        // When
+        y.deleteMessage(m.getId());
+
+        // Then
+        assertThat(y.getMessageById(m.getId()), is(nullValue()));
+        assertThat(y.getUserById("foo").getMessagesData().keySet(), empty());
+        assertThat(scoresOf(y, y.getUserById("foo")).keySet(), empty());
+    }
+
+    @Test
+    void testIncrementalScoring() {
+        // Given
+        Y y = new Y();
+        y.createUser("foo");
+        Message m1 = new Message("foo", "Hello, world!");
+        Message m2 = new Message("foo", "Hello, you!");
+        y.add(m1);
+        y.add(m2);
+        User foo = y.getUserById("foo");
+        y.rescore(foo);
+
+        // When
+        y.setBookmarked("foo", m1.getId(), true);
+        Message m3 = new Message("foo", "What is this message ?");
+        y.add(m3);
+        y.rescore(foo);
+
+        // Then
+        assertThat(foo.getPendingEvents(), empty());
+        Map<Long, Integer> scores = scoresOf(y, foo);
+        assertThat(scores.get(m1.getId()), is(-1));
+        assertThat(scores.get(m2.getId()), is(-2));
+        assertThat(scores.get(m3.getId()), is(2));
+        // Only the messages sharing words with the bookmark are personal
+        assertThat(foo.getMessagesData().keySet(), contains(m1.getId(), m2.getId()));
+    }
+
+    @Test
+    void testBookmarkChangesOnlyUpdateAffectedMessages() {
+        // Given
+        Y y = new Y();
+        y.createUser("foo");
+        Message m1 = new Message("foo", "Hello, world!");
+        Message m2 = new Message("foo", "Good bye, world!");
+        Message m3 = new Message("foo", "What is this message ?");
+        y.add(m1);
+        y.add(m2);
+        y.add(m3);
+        User foo = y.getUserById("foo");
+        y.setBookmarked("foo", m1.getId(), true);
+        y.rescore(foo);
+
+        // When
+        y.setBookmarked("foo", m1.getId(), false);
+        y.setBookmarked("foo", m3.getId(), true);
+        y.rescore(foo);
+
+        // Then
+        Map<Long, Integer> scores = scoresOf(y, foo);
+        assertThat(scores.get(m1.getId()), is(-3));
+        assertThat(scores.get(m2.getId()), is(2));
+        assertThat(scores.get(m3.getId()), is(6));
+        assertThat(foo.getMessagesData().keySet(), contains(m3.getId()));
+    }
+
+    @Test
+    void testUserDataOnlyKeepsPersonalState() {
+        // Given
+        Y y = new Y();
+        y.createUser("foo");
+        y.createUser("bar");
+        Message m1 = new Message("bar", "Hello, world!");
+        Message m2 = new Message("bar", "Good bye, you!");
+        y.add(m1);
+        y.add(m2);
+
+        // When
+        y.setBookmarked("foo", m1.getId(), true);
+        y.rescoreAsync(y.getUsers()).join();
+
+        // Then
+        User foo = y.getUserById("foo");
+        User bar = y.getUserById("bar");
+        assertThat(foo.getMessagesData().keySet(), contains(m1.getId()));
+        assertThat(bar.getMessagesData().keySet(), empty());
+        assertThat(scoresOf(y, bar).keySet(), containsInAnyOrder(m1.getId(), m2.getId()));
+        assertThat(scoresOf(y, foo).get(m1.getId()),
+                greaterThan(scoresOf(y, bar).get(m1.getId())));
+        assertThat(scoresOf(y, foo).get(m2.getId()), is(scoresOf(y, bar).get(m2.getId())));
+    }
+
+    @Test
+    void testParallelScoring() {
+        // Given
+        Y y = new Y();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        y.setScoringExecutor(executor);
+        for (int i = 0; i < 8; i++) {
+            y.createUser("user" + i);
+        }
+        Message m = new Message("user0", "What is this message ?");
+        y.add(m);
+
+        // When
+        try {
+            y.rescoreAsync(y.getUsers()).join();
+        } finally {
+            executor.shutdown();
+        }
+
+        // Then
+        for (User user : y.getUsers()) {
+            assertThat(y.getRankedMessages(user, User.VISIBILITY_THRESHOLD, 10).stream()
+                    .map(Ranking.Entry::getId).collect(Collectors.toList()), contains(m.getId()));
+        }
+    }
+
+    @Test
+    void testParallelRulesMatchSequentialScoring() {
+        // Given
+        Y y = new Y();
+        y.createUser("foo");
+        User foo = y.getUserById("foo");
+        Map<Message, MessageData> reference = new HashMap<>();
+        String[] words = {"hello", "world", "bye", "you", "what", "message"};
+        for (int i = 0; i < 2000; i++) {
+            Message m = new Message("foo", words[i % words.length] + " " + words[i % 5]);
+            y.add(m);
+            reference.put(m, new MessageData(i % 97 == 0, 0));
+        }
+        y.rescore(foo);
+
+        // When
+        reference.forEach((m, d) -> {
+            if (d.isBookmarked()) {
+                y.setBookmarked("foo", m.getId(), true);
+            }
+        });
+        y.rescore(foo);
+        y.applyScoringRules(reference);
+
+        // Then
+        Map<Long, Integer> scores = scoresOf(y, foo);
+        reference.forEach((m, d) -> assertThat(scores.get(m.getId()), is(d.getScore())));
+    }
+
+    @Test
+    void testParallelBaseScoresMatchSequentialScoring() {
+        // Given
+        Y bulk = new Y();
+        Y oneByOne = new Y();
+        List<Message> ingested = new ArrayList<>();
+        List<Message> added = new ArrayList<>();
+        String[] words = {"hello", "world", "bye", "you", "what", "message"};
+        for (int i = 0; i < 2000; i++) {
+            String content = words[i % words.length] + " " + "x".repeat(i % 7);
+            ingested.add(new Message("foo", content));
+            added.add(new Message("foo", content));
+        }
+
+        // When
+        bulk.ingest(List.of("foo"), ingested);
+        oneByOne.createUser("foo");
+        added.forEach(oneByOne::add);
+
+        // Then
+        for (int i = 0; i < ingested.size(); i++) {
+            assertThat(ingested.get(i).getBaseScore(), is(added.get(i).getBaseScore()));
+        }
+    }
+
+    @Test
+    void testTimeIndexFindsMessagesCrossingBuckets() {
+        // Given
+        TimeIndex index = new TimeIndex();
+        Message m = new Message("foo", "Hello, world!");
+        index.add(m);
+        long date = m.getDate();
+        long day = TimeUnit.HOURS.toMillis(24);
+
+        // When
+        Collection<Long> beforeBoundary = index.getIdsCrossingBuckets(date, date + day - 1);
+        Collection<Long> acrossBoundary = index.getIdsCrossingBuckets(date + day - 1,
+                date + day);
+
+        // Then
+        assertThat(beforeBoundary, is(empty()));
+        assertThat(acrossBoundary, contains(m.getId()));
+    }
+
+    @Test
+    void testTickRescoresMessagesCrossingBuckets() throws InterruptedException {
+        // Given
+        Y y = new Y();
+        y.createUser("foo");
+        long day = TimeUnit.HOURS.toMillis(24);
+        long date = System.currentTimeMillis() - day + 1000;
+        Message m = new Message(Message.reserveIds(1), "bar", "What is this message ?", date);
+        y.add(m);
+        y.rescoreAsync(y.getUsers()).join();
+        User foo = y.getUserById("foo");
+        assertThat(scoresOf(y, foo).get(m.getId()), greaterThan(User.VISIBILITY_THRESHOLD));
+        List<ChangeSet> notified = new ArrayList<>();
+        y.addView(notified::add);
+        notified.clear();
+
+        // When
+        while (System.currentTimeMillis() <= date + day) {
+            Thread.sleep(100);
+        }
+        y.tick().join();
+
+        // Then
+        assertThat(scoresOf(y, foo).get(m.getId()), is(User.VISIBILITY_THRESHOLD));
+        assertThat(notified, hasSize(1));
+        assertThat(notified.get(0).getRescoredTimelines(), contains("foo"));
+    }
+
+    @Test
+    void testBookmarkChangeNotifiesTimeline() {
+        // Given
+        Y y = new Y();
+        y.createUser("foo");
+        Message m = new Message("bar", "Hello, world!");
+        y.add(m);
+        List<ChangeSet> notified = new ArrayList<>();
+        y.addView(notified::add);
+        notified.clear();
+
+        // When
+        y.setBookmarked("foo", m.getId(), true);
+        y.setBookmarked("foo", m.getId(), true);
+        y.setBookmarked("foo", m.getId(), false);
+
+        // Then
+        assertThat(notified, hasSize(2));
+        assertThat(notified.get(0).getChangedTimelines(), contains("foo"));
+        assertThat(notified.get(1).getChangedTimelines(), contains("foo"));
+    }
+
+    @Test
+    void testScoringNotifiesChangedTimelinesOnly() {
+        // Given
+        Y y = new Y();
+        y.createUser("foo");
+        y.createUser("bar");
+        Message m1 = new Message("bar", "Hello, you are my best friend");
+        y.add(m1);
+        y.setBookmarked("foo", m1.getId(), true);
+        y.rescoreAsync(y.getUsers()).join();
+        List<ChangeSet> notified = new ArrayList<>();
+        y.addView(notified::add);
+        notified.clear();
+
+        // When
+        // Hidden for bar, but sharing many words with the bookmark of foo
+        Message m2 = new Message("bar", "Hello, my best friend, are you there?");
+        y.add(m2);
+        y.rescoreAsync(y.getUsers()).join();
+        Message m3 = new Message("bar", "Hello there");
+        y.add(m3);
+        y.rescoreAsync(y.getUsers()).join();
+
+        // Then
+        assertThat(m2.getBaseScore(), lessThanOrEqualTo(User.VISIBILITY_THRESHOLD));
+        assertThat(m3.getBaseScore(), lessThanOrEqualTo(User.VISIBILITY_THRESHOLD));
+        assertThat(scoresOf(y, y.getUserById("foo")).get(m2.getId()),
+                greaterThan(User.VISIBILITY_THRESHOLD));
+        assertThat(notified, hasSize(3));
+        assertThat(notified.get(1).getRescoredTimelines(), contains("foo"));
+        assertThat(notified.get(2).getAddedMessageIds(), contains(m3.getId()));
+    }
+
+    @Test
+    void testBatchNotifiesObserversOnce() {
+        // Given
+        Y y = new Y();
+        List<ChangeSet> notified = new ArrayList<>();
+        y.addView(notified::add);
+        notified.clear();
+
+        // When
+        y.batch(() -> {
+            y.createUser("foo");
+            y.add(new Message("foo", "Hello, world!"));
+            y.add(new Message("foo", "Hello, you!"));
+        });
+
+        // Then
+        assertThat(notified, hasSize(1));
+        assertThat(notified.get(0).getAddedUserIds(), contains("foo"));
+        assertThat(notified.get(0).getAddedMessageIds(), hasSize(2));
+    }
+
+    @Test
+    void testIngest() {
+        // Given
+        Y y = new Y();
+        y.createUser("foo");
+        Message m1 = new Message("foo", "Hello, world!");
+        Message m2 = new Message("bar", "Good bye, world!");
+
+        // When
+        IngestReport report = y.ingest(List.of("foo", "bar"), List.of(m1, m2));
+        y.rescoreAsync(y.getUsers()).join();
+
+        // Then
+        assertThat(report.getNbUsers(), is(1));
+        assertThat(report.getNbMessages(), is(2));
+        assertThat(y.getMessageById(m2.getId()), is(m2));
+        for (User user : y.getUsers()) {
+            assertThat(user.getMessagesData().keySet(), empty());
+            assertThat(scoresOf(y, user).keySet(), containsInAnyOrder(m1.getId(), m2.getId()));
+        }
+    }
+
+    @Test
+    void testConcurrentWriters() throws InterruptedException {
+        // Given
+        Y y = new Y();
+        y.createUser("foo");
+        User foo = y.getUserById("foo");
+        int nbWriters = 4;
+        int nbMessages = 1000;
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < nbWriters; w++) {
+            writers.add(new Thread(() -> {
+                for (int i = 0; i < nbMessages; i++) {
+                    Message m = new Message("foo", "Message " + i);
+                    y.add(m);
+                    if (i % 10 == 0) {
+                        y.setBookmarked("foo", m.getId(), true);
+                    }
+                }
+            }));
+        }
+
+        // When
+        writers.forEach(Thread::start);
+        while (writers.stream().anyMatch(Thread::isAlive)) {
+            y.rescore(foo);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        y.rescore(foo);
+
+        // Then
+        assertThat(scoresOf(y, foo).size(), is(nbWriters * nbMessages));
+        assertThat(foo.getBookmarkedMessage(), hasSize(nbWriters * nbMessages / 10));
+    }
+
+    private static Map<Long, Integer> scoresOf(final Y y, final User user) {
+        Map<Long, Integer> scores = new HashMap<>();
+        for (Ranking.Entry ranked
+                : y.getRankedMessages(user, Integer.MIN_VALUE, Integer.MAX_VALUE)) {
+            scores.put(ranked.getId(), ranked.getScore());
+        }
+        return scores;
+    }
+}
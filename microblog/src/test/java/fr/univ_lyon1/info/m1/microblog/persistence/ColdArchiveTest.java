@@ -0,0 +1,154 @@
+package fr.univ_lyon1.info.m1.microblog.persistence;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import fr.univ_lyon1.info.m1.microblog.model.Message;
+import fr.univ_lyon1.info.m1.microblog.model.Ranking;
+import fr.univ_lyon1.info.m1.microblog.model.RetentionPolicy;
+import fr.univ_lyon1.info.m1.microblog.model.User;
+import fr.univ_lyon1.info.m1.microblog.model.Y;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *  Test the archival of the messages moved out of the hot window.
+ */
+public class ColdArchiveTest {
+    @Test
+    void testOldMessagesAreArchived(@TempDir final Path directory) throws IOException {
+        // Given
+        Y y = new Y();
+        ColdArchive archive = ColdArchive.open(directory.resolve("archive.dat"));
+        y.setRetention(RetentionPolicy.byCount(2), archive);
+        y.createUser("foo");
+        Message m1 = new Message("foo", "Hello, world!");
+        Message m2 = new Message("foo", "Good bye, world!");
+        Message m3 = new Message("foo", "What is this message?");
+        Message m4 = new Message("foo", "Hello, you!");
+        Message m5 = new Message("foo", "Good bye, you!");
+
+        // When
+        y.add(m1);
+        y.setBookmarked("foo", m1.getId(), true);
+        y.add(m2);
+        y.add(m3);
+        y.add(m4);
+        y.add(m5);
+        y.rescoreAsync(y.getUsers()).join();
+
+        // Then
+        User foo = y.getUserById("foo");
+        assertThat(rankedIds(y, foo), containsInAnyOrder(m1.getId(), m4.getId(), m5.getId()));
+        assertThat(archive.size(), is(2));
+        assertThat(y.getMessageById(m2.getId()).getContent(), is("Good bye, world!"));
+        archive.close();
+        ColdArchive reopened = ColdArchive.open(directory.resolve("archive.dat"));
+        assertThat(reopened.load(m3.getId()).getDate(), is(m3.getDate()));
+        assertThat(reopened.load(m4.getId()), is(nullValue()));
+        reopened.close();
+    }
+
+    @Test
+    void testUnbookmarkedMessageLeavesWindow(@TempDir final Path directory)
+            throws IOException {
+        // Given
+        Y y = new Y();
+        ColdArchive archive = ColdArchive.open(directory.resolve("archive.dat"));
+        y.setRetention(RetentionPolicy.byCount(1), archive);
+        y.createUser("foo");
+        Message m1 = new Message("foo", "Hello, world!");
+        Message m2 = new Message("foo", "Good bye, world!");
+        Message m3 = new Message("foo", "What is this message?");
+        Message m4 = new Message("foo", "Hello, you!");
+        y.add(m1);
+        y.setBookmarked("foo", m1.getId(), true);
+        y.add(m2);
+        y.add(m3);
+
+        // When
+        y.setBookmarked("foo", m1.getId(), false);
+        y.add(m4);
+        y.rescoreAsync(y.getUsers()).join();
+
+        // Then
+        assertThat(rankedIds(y, y.getUserById("foo")), contains(m4.getId()));
+        assertThat(archive.size(), is(3));
+        archive.close();
+    }
+
+    @Test
+    void testDeletedMessageIsNotLoaded(@TempDir final Path directory) throws IOException {
+        // Given
+        Y y = new Y();
+        ColdArchive archive = ColdArchive.open(directory.resolve("archive.dat"));
+        y.setRetention(RetentionPolicy.KEEP_ALL, archive);
+        Message m1 = new Message("foo", "Hello, world!");
+        Message m2 = new Message("foo", "Good bye, world!");
+        y.add(m1);
+        y.add(m2);
+        // Archived, then deleted before leaving the hot window
+        archive.store(List.of(m1, m2));
+
+        // When
+        y.deleteMessage(m2.getId());
+
+        // Then
+        assertThat(y.getMessageById(m2.getId()), is(nullValue()));
+        assertThat(archive.size(), is(1));
+        archive.close();
+        ColdArchive reopened = ColdArchive.open(directory.resolve("archive.dat"));
+        assertThat(reopened.load(m1.getId()).getContent(), is("Hello, world!"));
+        assertThat(reopened.load(m2.getId()), is(nullValue()));
+        assertThat(reopened.size(), is(1));
+        reopened.close();
+    }
+
+    @Test
+    void testArchiveFailureIsReported(@TempDir final Path directory) throws IOException {
+        // Given
+        Y y = new Y();
+        ColdArchive archive = ColdArchive.open(directory.resolve("archive.dat"));
+        y.setRetention(RetentionPolicy.byCount(1), archive);
+        Message m1 = new Message("foo", "Hello, world!");
+        y.add(m1);
+        archive.close();
+
+        // When
+        Message m2 = new Message("foo", "Good bye, world!");
+        assertThrows(UncheckedIOException.class, () -> y.add(m2));
+
+        // Then
+        assertThat(y.getMessageById(m1.getId()).getContent(), is("Hello, world!"));
+        assertThat(y.getMessageById(m2.getId()).getContent(), is("Good bye, world!"));
+    }
+
+    @Test
+    void testLoadFailureIsReported(@TempDir final Path directory) throws IOException {
+        // Given
+        Y y = new Y();
+        ColdArchive archive = ColdArchive.open(directory.resolve("archive.dat"));
+        y.setRetention(RetentionPolicy.byCount(1), archive);
+        Message m1 = new Message("foo", "Hello, world!");
+        y.add(m1);
+        y.add(new Message("foo", "Good bye, world!"));
+
+        // When
+        archive.close();
+
+        // Then
+        assertThrows(UncheckedIOException.class, () -> y.getMessageById(m1.getId()));
+    }
+
+    private static List<Long> rankedIds(final Y y, final User user) {
+        return y.getRankedMessages(user, Integer.MIN_VALUE, Integer.MAX_VALUE).stream()
+                .map(Ranking.Entry::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,225 @@
+package fr.univ_lyon1.info.m1.microblog.persistence;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import fr.univ_lyon1.info.m1.microblog.model.Message;
+import fr.univ_lyon1.info.m1.microblog.model.Ranking;
+import fr.univ_lyon1.info.m1.microblog.model.User;
+import fr.univ_lyon1.info.m1.microblog.model.Y;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *  Test the durable log of the changes made to the model.
+ */
+public class EventLogTest {
+    @Test
+    void testReplayRebuildsModel(@TempDir final Path directory) throws IOException {
+        // Given
+        Y y = new Y();
+        EventLog log = EventLog.open(directory, y);
+        y.setJournal(log);
+        y.createUser("foo");
+        Message m1 = new Message("foo", "Hello, world!");
+        Message m2 = new Message(null, "Good bye, world!");
+        Message m3 = new Message("foo", "What is this message?");
+        y.add(m1);
+        y.add(m2);
+        y.add(m3);
+        y.deleteMessage(m2.getId());
+        y.setBookmarked("foo", m3.getId(), true);
+        log.close();
+
+        // When
+        Y restored = new Y();
+        EventLog reopened = EventLog.open(directory, restored);
+        restored.rescoreAsync(restored.getUsers()).join();
+
+        // Then
+        assertThat(reopened.getReplayedEvents(), is(6L));
+        User foo = restored.getUserById("foo");
+        assertThat(rankedIds(restored, foo), containsInAnyOrder(m1.getId(), m3.getId()));
+        assertThat(foo.getBookmarkedMessage(), contains(m3.getId()));
+        assertThat(restored.getMessageById(m1.getId()).getDate(), is(m1.getDate()));
+        assertThat(new Message("foo", "New").getId(), greaterThan(m3.getId()));
+        reopened.close();
+    }
+
+    @Test
+    void testTornRecordIsDiscarded(@TempDir final Path directory) throws IOException {
+        // Given
+        Y y = new Y();
+        EventLog log = EventLog.open(directory, y);
+        y.setJournal(log);
+        y.createUser("foo");
+        y.createUser("bar");
+        log.close();
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.collect(Collectors.toList()).get(0);
+        }
+        try (FileChannel out = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            out.truncate(out.size() - 1);
+        }
+
+        // When
+        Y restored = new Y();
+        EventLog reopened = EventLog.open(directory, restored);
+        restored.setJournal(reopened);
+        restored.createUser("baz");
+        reopened.close();
+        Y restoredTwice = new Y();
+        EventLog.open(directory, restoredTwice).close();
+
+        // Then
+        assertThat(reopened.getReplayedEvents(), is(1L));
+        assertThat(restoredTwice.getUsers().stream().map(User::getId)
+                .collect(Collectors.toList()), is(List.of("foo", "baz")));
+        try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+            assertThat(in.read(ByteBuffer.allocate(1), in.size()), is(-1));
+        }
+    }
+
+    @Test
+    void testCorruptedEarlierSegmentStopsReplay(@TempDir final Path directory,
+            @TempDir final Path other) throws IOException {
+        // Given
+        Y y = new Y();
+        EventLog log = EventLog.open(directory, y);
+        y.setJournal(log);
+        y.createUser("foo");
+        y.createUser("bar");
+        log.close();
+        Y otherY = new Y();
+        EventLog otherLog = EventLog.open(other, otherY);
+        otherY.setJournal(otherLog);
+        otherY.createUser("baz");
+        otherLog.close();
+        Path first = directory.resolve("events-00000000000000000000.log");
+        Files.copy(other.resolve("events-00000000000000000000.log"),
+                directory.resolve("events-00000000000000000001.log"));
+        long size = Files.size(first);
+        try (FileChannel out = FileChannel.open(first, StandardOpenOption.WRITE)) {
+            out.write(ByteBuffer.wrap(new byte[] {(byte) 0xFF}), size - 1);
+        }
+
+        // When
+        Y restored = new Y();
+        assertThrows(IOException.class, () -> EventLog.open(directory, restored));
+
+        // Then
+        assertThat(restored.getUsers().stream().map(User::getId)
+                .collect(Collectors.toList()), is(List.of("foo")));
+        assertThat(Files.size(first), is(size));
+    }
+
+    @Test
+    void testFailedWriteRejectsLaterChanges(@TempDir final Path directory)
+            throws IOException {
+        // Given
+        Y y = new Y();
+        EventLog log = EventLog.open(directory, y);
+        y.setJournal(log);
+        List<IOException> failures = new CopyOnWriteArrayList<>();
+        log.setFailureHandler(failures::add);
+        y.createUser("foo");
+        y.createUser("bar");
+        log.sync().join();
+        // The next segment cannot be created
+        Path next = Files.createDirectory(directory.resolve("events-00000000000000000001.log"));
+
+        // When
+        assertThrows(CompletionException.class, () -> log.snapshot(y).join());
+        y.createUser("baz");
+
+        // Then
+        assertThrows(CompletionException.class, log::close);
+        assertThat(failures, hasSize(1));
+        Files.delete(next);
+        Y restored = new Y();
+        EventLog reopened = EventLog.open(directory, restored);
+        assertThat(reopened.getReplayedEvents(), is(2L));
+        assertThat(restored.getUsers().stream().map(User::getId)
+                .collect(Collectors.toList()), is(List.of("foo", "bar")));
+        reopened.close();
+    }
+
+    @Test
+    void testSnapshotReplacesOldSegments(@TempDir final Path directory) throws IOException {
+        // Given
+        Y y = new Y();
+        EventLog log = EventLog.open(directory, y);
+        y.setJournal(log);
+        y.createUser("foo");
+        Message m1 = new Message("foo", "Hello, world!");
+        Message m2 = new Message("foo", "Good bye, world!");
+        y.add(m1);
+        y.setBookmarked("foo", m1.getId(), true);
+        log.snapshot(y).join();
+        y.add(m2);
+        log.close();
+
+        // When
+        Y restored = new Y();
+        EventLog reopened = EventLog.open(directory, restored);
+        restored.rescoreAsync(restored.getUsers()).join();
+
+        // Then
+        assertThat(reopened.getReplayedEvents(), is(1L));
+        assertThat(reopened.isEmpty(), is(false));
+        User foo = restored.getUserById("foo");
+        assertThat(rankedIds(restored, foo), containsInAnyOrder(m1.getId(), m2.getId()));
+        assertThat(foo.getBookmarkedMessage(), contains(m1.getId()));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files.map(f -> f.getFileName().toString()).sorted()
+                    .collect(Collectors.toList()), contains(
+                            "events-00000000000000000001.log",
+                            "snapshot-00000000000000000001.snap"));
+        }
+        reopened.close();
+    }
+
+    @Test
+    void testPeriodicSnapshotIsWritten(@TempDir final Path directory)
+            throws IOException, InterruptedException {
+        // Given
+        Y y = new Y();
+        EventLog log = EventLog.open(directory, y);
+        y.setJournal(log);
+        y.createUser("foo");
+
+        // When
+        log.startSnapshots(y, 10, TimeUnit.MILLISECONDS);
+        Path snapshot = directory.resolve("snapshot-00000000000000000001.snap");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!Files.exists(snapshot) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        long closing = System.nanoTime();
+        log.close();
+
+        // Then
+        assertThat(Files.exists(snapshot), is(true));
+        assertThat(System.nanoTime() - closing, lessThan(TimeUnit.SECONDS.toNanos(10)));
+    }
+
+    private static List<Long> rankedIds(final Y y, final User user) {
+        return y.getRankedMessages(user, Integer.MIN_VALUE, Integer.MAX_VALUE).stream()
+                .map(Ranking.Entry::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,58 @@
+package fr.univ_lyon1.info.m1.microblog.view;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import fr.univ_lyon1.info.m1.microblog.dto.MessageDataDTO;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import org.junit.jupiter.api.Test;
+
+/**
+ *  Test the update of the displayed timelines.
+ */
+public class JfxViewTest {
+    @Test
+    void testFirstDisplayReplacesRowsAtOnce() {
+        // Given
+        ObservableList<MessageDataDTO> rows = FXCollections.observableArrayList();
+        AtomicInteger changes = new AtomicInteger();
+        rows.addListener((ListChangeListener<MessageDataDTO>) c -> changes.incrementAndGet());
+        List<MessageDataDTO> ranking = List.of(new MessageDataDTO(1, 3, true),
+                new MessageDataDTO(2, 2, false), new MessageDataDTO(3, 1, false));
+
+        // When
+        JfxView.applyChanges(rows, ranking);
+
+        // Then
+        assertThat(rows, is(ranking));
+        assertThat(changes.get(), is(1));
+    }
+
+    @Test
+    void testUnchangedRowsAreKept() {
+        // Given
+        MessageDataDTO first = new MessageDataDTO(1, 4, false);
+        MessageDataDTO fourth = new MessageDataDTO(4, 1, false);
+        ObservableList<MessageDataDTO> rows = FXCollections.observableArrayList(first,
+                new MessageDataDTO(2, 3, false), new MessageDataDTO(3, 2, false), fourth);
+        List<MessageDataDTO> ranking = List.of(new MessageDataDTO(1, 4, false),
+                new MessageDataDTO(3, 3, true), new MessageDataDTO(4, 1, false),
+                new MessageDataDTO(5, 0, false));
+
+        // When
+        JfxView.applyChanges(rows, ranking);
+
+        // Then
+        assertThat(rows.stream().map(MessageDataDTO::getId).collect(Collectors.toList()),
+                contains(1L, 3L, 4L, 5L));
+        assertThat(rows.get(0), is(sameInstance(first)));
+        assertThat(rows.get(1).isBookmarked(), is(true));
+        assertThat(rows.get(2), is(sameInstance(fourth)));
+    }
+}